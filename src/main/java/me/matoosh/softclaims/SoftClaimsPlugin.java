@@ -3,9 +3,9 @@ package me.matoosh.softclaims;
 import co.aikar.commands.BukkitCommandManager;
 import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.ProtocolManager;
-import me.matoosh.blockmetadata.exception.ChunkAlreadyLoadedException;
-import me.matoosh.blockmetadata.exception.ChunkNotLoadedException;
 import me.matoosh.softclaims.commands.SoftClaimsCommand;
+import me.matoosh.softclaims.config.SoftClaimsConfig;
+import me.matoosh.softclaims.durability.BlockBreakQueue;
 import me.matoosh.softclaims.durability.BlockDurabilityService;
 import me.matoosh.softclaims.durability.BlockRepairService;
 import me.matoosh.softclaims.durability.CommunicationService;
@@ -13,6 +13,9 @@ import me.matoosh.softclaims.events.BlockBreakHandler;
 import me.matoosh.softclaims.events.DiggersHandler;
 import me.matoosh.softclaims.events.ExplosionHandler;
 import me.matoosh.softclaims.events.RightClickHandler;
+import me.matoosh.softclaims.events.WorldLoadHandler;
+import me.matoosh.softclaims.exception.ChunkAlreadyLoadedException;
+import me.matoosh.softclaims.exception.ChunkNotLoadedException;
 import me.matoosh.softclaims.faction.FactionService;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
@@ -41,16 +44,20 @@ import java.util.concurrent.ExecutionException;
 public class SoftClaimsPlugin extends JavaPlugin {
 
     private ProtocolManager protocolManager;
+    private volatile SoftClaimsConfig softClaimsConfig;
     private DiggersHandler diggersHandler;
     private BlockDurabilityService blockDurabilityService;
     private final CommunicationService communicationService = new CommunicationService();
     private final FactionService factionService = new FactionService(this);
     private final BlockRepairService blockRepairService = new BlockRepairService(this);
+    private final BlockBreakQueue blockBreakQueue = new BlockBreakQueue(this);
 
     @Override
     public void onEnable() {
         // save config
         this.saveDefaultConfig();
+        SoftClaimsConfig.logWarnings(getConfig(), getLogger());
+        this.softClaimsConfig = SoftClaimsConfig.compile(getConfig());
 
         // register commands
         registerCommands();
@@ -60,6 +67,7 @@ public class SoftClaimsPlugin extends JavaPlugin {
 
         // init block durability service
         blockDurabilityService = new BlockDurabilityService(this);
+        blockDurabilityService.initialize();
 
         // init faction service
         this.factionService.initialize();
@@ -67,9 +75,16 @@ public class SoftClaimsPlugin extends JavaPlugin {
         // init block repair service
         this.blockRepairService.initialize();
 
+        // init block break queue
+        this.blockBreakQueue.initialize();
+
+        // start dig engine
+        this.diggersHandler.initialize();
+
         // load data
         List<CompletableFuture<Void>> tasks = new ArrayList<>();
         for (World world : Bukkit.getWorlds()) {
+            getBlockDurabilityService().getDurabilityStorage().getDamagedChunkIndex().load(world);
             for(Chunk chunk : world.getLoadedChunks()) {
                 try {
                     tasks.add(getBlockDurabilityService().getDurabilityStorage().loadChunk(chunk));
@@ -97,6 +112,15 @@ public class SoftClaimsPlugin extends JavaPlugin {
     @Override
     public void onDisable() {
         getLogger().info("Disabling SoftClaims...");
+        // charge pending repairs
+        blockRepairService.shutdown();
+
+        // break remaining destroyed blocks
+        blockBreakQueue.drainAll();
+
+        // merge pending dig damage
+        blockDurabilityService.flushPendingDamage();
+
         getLogger().info("Saving durability info...");
         // save remaining loaded chunks
         List<CompletableFuture<Void>> tasks = new ArrayList<>();
@@ -108,6 +132,8 @@ public class SoftClaimsPlugin extends JavaPlugin {
                     e.printStackTrace();
                 }
             }
+            tasks.add(getBlockDurabilityService().getDurabilityStorage()
+                    .getDamagedChunkIndex().save(world).thenApply((position) -> null));
         }
         try {
             CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).get();
@@ -117,6 +143,23 @@ public class SoftClaimsPlugin extends JavaPlugin {
         getLogger().info("Soft Claims disabled!");
     }
 
+    /**
+     * Reloads the config from disk and swaps in a newly compiled snapshot.
+     */
+    public void reloadSoftClaimsConfig() {
+        this.reloadConfig();
+        SoftClaimsConfig.logWarnings(getConfig(), getLogger());
+        recompileSoftClaimsConfig();
+    }
+
+    /**
+     * Compiles the currently loaded config into a new snapshot.
+     * Needed whenever the loaded worlds change.
+     */
+    public void recompileSoftClaimsConfig() {
+        this.softClaimsConfig = SoftClaimsConfig.compile(getConfig());
+    }
+
     /**
      * Registers commands.
      */
@@ -141,6 +184,15 @@ public class SoftClaimsPlugin extends JavaPlugin {
         Bukkit.getPluginManager().registerEvents(new ExplosionHandler(this), this);
         Bukkit.getPluginManager().registerEvents(new RightClickHandler(this), this);
         Bukkit.getPluginManager().registerEvents(new BlockBreakHandler(this), this);
+        Bukkit.getPluginManager().registerEvents(new WorldLoadHandler(this), this);
+    }
+
+    /**
+     * Gets the current compiled config snapshot.
+     * @return The compiled config.
+     */
+    public SoftClaimsConfig getSoftClaimsConfig() {
+        return softClaimsConfig;
     }
 
     public ProtocolManager getProtocolManager() {
@@ -166,4 +218,8 @@ public class SoftClaimsPlugin extends JavaPlugin {
     public BlockRepairService getBlockRepairService() {
         return blockRepairService;
     }
+
+    public BlockBreakQueue getBlockBreakQueue() {
+        return blockBreakQueue;
+    }
 }
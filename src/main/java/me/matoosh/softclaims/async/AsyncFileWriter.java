@@ -47,8 +47,9 @@ public class AsyncFileWriter implements AutoCloseable{
     final AsynchronousFileChannel asyncFile;
     /**
      * File position after last write operation completion.
+     * Never completes exceptionally, a failed write leaves the position where it was.
      */
-    private CompletableFuture<Integer> currentPosition = CompletableFuture.completedFuture(0);
+    private CompletableFuture<Long> currentPosition = CompletableFuture.completedFuture(0L);
 
     public AsyncFileWriter(AsynchronousFileChannel asyncFile) {
         this.asyncFile = asyncFile;
@@ -58,8 +59,17 @@ public class AsyncFileWriter implements AutoCloseable{
         this(open(file, options));
     }
 
+    /**
+     * Opens a writer which starts writing at the given file position,
+     * e.g. the file size to append to an existing file.
+     */
+    public AsyncFileWriter(Path file, long position, StandardOpenOption...options) throws IOException {
+        this(open(file, options));
+        this.currentPosition = CompletableFuture.completedFuture(position);
+    }
+
 
-    public CompletableFuture<Integer> getPosition() {
+    public CompletableFuture<Long> getPosition() {
         return currentPosition;
     }
 
@@ -68,7 +78,7 @@ public class AsyncFileWriter implements AutoCloseable{
      * the final file index after the completion of the corresponding
      * write operation.
      */
-    public CompletableFuture<Integer> write(String str) {
+    public CompletableFuture<Long> write(String str) {
         return write(str.getBytes());
     }
 
@@ -77,7 +87,7 @@ public class AsyncFileWriter implements AutoCloseable{
      * the final file index after the completion of the corresponding
      * write operation.
      */
-    public CompletableFuture<Integer> write(byte[] bytes) {
+    public CompletableFuture<Long> write(byte[] bytes) {
         return write(wrap(bytes));
     }
 
@@ -86,24 +96,27 @@ public class AsyncFileWriter implements AutoCloseable{
      * the final file index after the completion of the corresponding
      * write operation.
      */
-    public CompletableFuture<Integer> write(ByteBuffer bytes) {
+    public CompletableFuture<Long> write(ByteBuffer bytes) {
         /**
          * Wee need to update currentPosition field to keep track.
          * The currentPosition field is used on close() method, which chains
          * a continuation to close the AsyncFileChannel.
          */
-        currentPosition = currentPosition.thenCompose(index -> {
+        CompletableFuture<Long> previous = currentPosition;
+        CompletableFuture<Long> written = previous.thenCompose(index -> {
             CompletableFuture<Integer> size = write(asyncFile, bytes, index);
             return size.thenApply(length -> length + index);
         });
-        return currentPosition;
+        // recover the position after a failed write, so the writes after it still go through
+        currentPosition = written.handle((index, e) -> e == null ? index : previous.join());
+        return written;
     }
 
 
     static CompletableFuture<Integer> write(
             AsynchronousFileChannel asyncFile,
             ByteBuffer buf,
-            int position)
+            long position)
     {
         CompletableFuture<Integer> promise = new CompletableFuture<>();
         asyncFile.write(buf, position, null, new CompletionHandler<Integer, Object>() {
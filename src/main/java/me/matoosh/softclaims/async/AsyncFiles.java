@@ -101,18 +101,18 @@ public class AsyncFiles {
      * If an I/O error occurs then it may complete the resulting CompletableFuture
      * exceptionally.
      */
-    public static CompletableFuture<Integer> writeBytes(
+    public static CompletableFuture<Long> writeBytes(
             Path path,
             byte[] bytes,
             StandardOpenOption... options)
     {
         try (AsyncFileWriter writer = new AsyncFileWriter(path, options)) {
-            writer.write(bytes);
+            CompletableFuture<Long> written = writer.write(bytes);
             // The call to writer.close() is asynchronous and will chain
             // a continuation to close the AsyncFileChannel only after completion.
-            return writer.getPosition();
+            return written;
         } catch (IOException e) {
-            CompletableFuture<Integer> failed = new CompletableFuture<>();
+            CompletableFuture<Long> failed = new CompletableFuture<>();
             failed.completeExceptionally(e);
             return failed;
         }
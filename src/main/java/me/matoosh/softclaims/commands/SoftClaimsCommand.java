@@ -7,6 +7,9 @@ import co.aikar.commands.annotation.Default;
 import co.aikar.commands.annotation.Subcommand;
 import me.matoosh.softclaims.MSG;
 import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.durability.DamagedChunkIndex;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 
 @CommandAlias("softclaims")
@@ -25,7 +28,22 @@ public class SoftClaimsCommand extends BaseCommand {
     @Subcommand("reload")
     @CommandPermission("softclaims.reload")
     public void onReload(CommandSender sender) {
-        this.plugin.reloadConfig();
+        this.plugin.reloadSoftClaimsConfig();
         MSG.send(sender, "Plugin was reloaded successfully!");
     }
+
+    @Subcommand("stats")
+    @CommandPermission("softclaims.stats")
+    public void onStats(CommandSender sender) {
+        DamagedChunkIndex damagedChunkIndex = plugin.getBlockDurabilityService()
+                .getDurabilityStorage().getDamagedChunkIndex();
+        for (World world : Bukkit.getWorlds()) {
+            int[] damagedBlocks = {0};
+            damagedChunkIndex.forEachDamagedChunk(world,
+                    (chunkX, chunkZ, blocks) -> damagedBlocks[0] += blocks);
+            MSG.send(sender, world.getName() + ": "
+                    + damagedChunkIndex.getDamagedChunkCount(world) + " damaged chunks, "
+                    + damagedBlocks[0] + " damaged blocks");
+        }
+    }
 }
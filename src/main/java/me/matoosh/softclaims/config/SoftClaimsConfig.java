@@ -0,0 +1,281 @@
+package me.matoosh.softclaims.config;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.EntityType;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Immutable snapshot of the plugin config, compiled into
+ * lookup tables so hot paths don't have to query the config.
+ * A new snapshot is compiled on every reload and world load.
+ */
+public class SoftClaimsConfig {
+
+    /**
+     * Explosion damage used for sources missing from the config.
+     */
+    public static final int DEFAULT_EXPLOSION_DAMAGE = 100;
+
+    /**
+     * Total durability by material ordinal.
+     */
+    private final int[] totalDurabilities;
+
+    /**
+     * Materials which have durability.
+     */
+    private final BitSet trackedMaterials;
+
+    /**
+     * Explosion damage by entity type ordinal.
+     */
+    private final int[] entityExplosionDamage;
+
+    /**
+     * Explosion damage by material ordinal.
+     */
+    private final int[] blockExplosionDamage;
+
+    /**
+     * Ids of the loaded worlds in which the plugin is disabled.
+     */
+    private final Set<UUID> disabledWorlds;
+
+    private final double toolDamageModifier;
+    private final int repairDelta;
+    private final double repairCost;
+    private final int repairFrequency;
+    private final int repairChunksPerTick;
+    private final long repairTickBudget;
+
+    /**
+     * Whether durability regenerates continuously, computed when read,
+     * instead of being repaired periodically.
+     */
+    private final boolean lazyRepair;
+
+    private final long breakTickBudget;
+
+    /**
+     * Whether the drops of blocks broken together in a chunk are merged.
+     */
+    private final boolean mergeDrops;
+
+    private SoftClaimsConfig(int[] totalDurabilities, BitSet trackedMaterials,
+                             int[] entityExplosionDamage, int[] blockExplosionDamage,
+                             Set<UUID> disabledWorlds, double toolDamageModifier, int repairDelta,
+                             double repairCost, int repairFrequency,
+                             int repairChunksPerTick, long repairTickBudget,
+                             boolean lazyRepair, long breakTickBudget, boolean mergeDrops) {
+        this.totalDurabilities = totalDurabilities;
+        this.trackedMaterials = trackedMaterials;
+        this.entityExplosionDamage = entityExplosionDamage;
+        this.blockExplosionDamage = blockExplosionDamage;
+        this.disabledWorlds = disabledWorlds;
+        this.toolDamageModifier = toolDamageModifier;
+        this.repairDelta = repairDelta;
+        this.repairCost = repairCost;
+        this.repairFrequency = repairFrequency;
+        this.repairChunksPerTick = repairChunksPerTick;
+        this.repairTickBudget = repairTickBudget;
+        this.lazyRepair = lazyRepair;
+        this.breakTickBudget = breakTickBudget;
+        this.mergeDrops = mergeDrops;
+    }
+
+    /**
+     * Compiles the plugin config.
+     * @param config The plugin config.
+     * @return The compiled config.
+     */
+    public static SoftClaimsConfig compile(ConfigurationSection config) {
+        // block durabilities
+        int[] totalDurabilities = new int[Material.values().length];
+        BitSet trackedMaterials = new BitSet(totalDurabilities.length);
+        ConfigurationSection blocks = config.getConfigurationSection("blocks");
+        if (blocks != null) {
+            for (String name : blocks.getKeys(false)) {
+                Material material = Material.getMaterial(name);
+                int durability = blocks.getInt(name + ".durability", 0);
+                if (material == null || durability <= 0) continue;
+                totalDurabilities[material.ordinal()] = durability;
+                trackedMaterials.set(material.ordinal());
+            }
+        }
+
+        // explosion damage
+        int[] entityExplosionDamage = new int[EntityType.values().length];
+        int[] blockExplosionDamage = new int[totalDurabilities.length];
+        Arrays.fill(entityExplosionDamage, DEFAULT_EXPLOSION_DAMAGE);
+        Arrays.fill(blockExplosionDamage, DEFAULT_EXPLOSION_DAMAGE);
+        ConfigurationSection explosionDamage = config.getConfigurationSection("explosionDamage");
+        if (explosionDamage != null) {
+            for (String name : explosionDamage.getKeys(false)) {
+                int damage = explosionDamage.getInt(name, DEFAULT_EXPLOSION_DAMAGE);
+                EntityType entityType = getEntityType(name);
+                if (entityType != null) {
+                    entityExplosionDamage[entityType.ordinal()] = damage;
+                }
+                Material material = Material.getMaterial(name);
+                if (material != null) {
+                    blockExplosionDamage[material.ordinal()] = damage;
+                }
+            }
+        }
+
+        // disabled worlds
+        Set<UUID> disabledWorlds = new HashSet<>();
+        for (String name : config.getStringList("disabledWorlds")) {
+            World world = Bukkit.getWorld(name);
+            if (world != null) {
+                disabledWorlds.add(world.getUID());
+            }
+        }
+
+        // lazy regeneration isn't billed, so paid repair
+        // only switches to it when free repair is allowed
+        double repairCost = config.getDouble("repair.repairCost", 0d);
+        boolean lazyRepair = isLazyRepairRequested(config) && !isLazyRepairDenied(config);
+
+        return new SoftClaimsConfig(totalDurabilities, trackedMaterials,
+                entityExplosionDamage, blockExplosionDamage, disabledWorlds,
+                config.getDouble("toolDamageModifier", 0.2d),
+                config.getInt("repair.repairDelta", 0),
+                repairCost,
+                config.getInt("repair.repairFrequency", 300),
+                config.getInt("repair.chunksPerTick", 20),
+                (long) (config.getDouble("repair.tickBudget", 2d) * 1_000_000d),
+                lazyRepair,
+                (long) (config.getDouble("breaking.tickBudget", 2d) * 1_000_000d),
+                config.getBoolean("breaking.mergeDrops", false));
+    }
+
+    /**
+     * Logs warnings about config settings which can't be applied as set.
+     * Called once whenever the config is loaded from disk.
+     * @param config The plugin config.
+     * @param logger The plugin logger.
+     */
+    public static void logWarnings(ConfigurationSection config, Logger logger) {
+        if (isLazyRepairDenied(config)) {
+            logger.warning("repair.mode is lazy but repairs cost money, using periodic repair. "
+                    + "Set repair.allowFreeLazyRepair to make repairs free instead.");
+        }
+    }
+
+    private static boolean isLazyRepairRequested(ConfigurationSection config) {
+        return "lazy".equalsIgnoreCase(config.getString("repair.mode", "periodic"));
+    }
+
+    private static boolean isLazyRepairDenied(ConfigurationSection config) {
+        return isLazyRepairRequested(config) && config.getDouble("repair.repairCost", 0d) > 0
+                && !config.getBoolean("repair.allowFreeLazyRepair", false);
+    }
+
+    private static EntityType getEntityType(String name) {
+        try {
+            return EntityType.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the total durability of a material.
+     * @param material The material.
+     * @return The total durability, 0 if the material has no durability.
+     */
+    public int getTotalDurability(Material material) {
+        if (material == null) return 0;
+        return totalDurabilities[material.ordinal()];
+    }
+
+    /**
+     * Checks whether a material has durability.
+     * @param material The material.
+     * @return Whether the material has durability.
+     */
+    public boolean isTracked(Material material) {
+        return material != null && trackedMaterials.get(material.ordinal());
+    }
+
+    /**
+     * Gets the damage dealt by an entity explosion.
+     * @param entityType The type of the exploding entity.
+     * @return The explosion damage.
+     */
+    public int getExplosionDamage(EntityType entityType) {
+        return entityExplosionDamage[entityType.ordinal()];
+    }
+
+    /**
+     * Gets the damage dealt by a block explosion.
+     * @param material The type of the exploding block.
+     * @return The explosion damage.
+     */
+    public int getExplosionDamage(Material material) {
+        return blockExplosionDamage[material.ordinal()];
+    }
+
+    /**
+     * Checks whether the plugin is disabled in a world.
+     * @param world The world.
+     * @return Whether the plugin is disabled in the world.
+     */
+    public boolean isWorldDisabled(World world) {
+        return disabledWorlds.contains(world.getUID());
+    }
+
+    public double getToolDamageModifier() {
+        return toolDamageModifier;
+    }
+
+    public int getRepairDelta() {
+        return repairDelta;
+    }
+
+    public double getRepairCost() {
+        return repairCost;
+    }
+
+    public int getRepairFrequency() {
+        return repairFrequency;
+    }
+
+    public int getRepairChunksPerTick() {
+        return repairChunksPerTick;
+    }
+
+    /**
+     * Gets the time budget for repairing chunks each tick.
+     * @return The budget in nanoseconds.
+     */
+    public long getRepairTickBudget() {
+        return repairTickBudget;
+    }
+
+    public boolean isLazyRepair() {
+        return lazyRepair;
+    }
+
+    /**
+     * Gets the time budget for breaking destroyed blocks each tick.
+     * @return The budget in nanoseconds.
+     */
+    public long getBreakTickBudget() {
+        return breakTickBudget;
+    }
+
+    public boolean isMergeDrops() {
+        return mergeDrops;
+    }
+}
@@ -0,0 +1,256 @@
+package me.matoosh.softclaims.durability;
+
+import me.matoosh.softclaims.SoftClaimsPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Effect;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queue of blocks to break, drained on the main thread within a time budget each tick.
+ * Breaks are grouped by chunk, so large destruction spreads over ticks chunk by chunk.
+ * The drops of the blocks broken in a chunk can be merged into as few stacks as possible.
+ * Breaks of unloaded chunks are parked until the chunk loads again.
+ * Has to be used from the main thread.
+ */
+public class BlockBreakQueue implements Listener {
+
+    private final SoftClaimsPlugin plugin;
+
+    /**
+     * Pending breaks by world and chunk key.
+     */
+    private final Map<World, Map<Long, ChunkBreaks>> pendingBreaks = new HashMap<>();
+
+    /**
+     * Loaded chunks with pending breaks, in order of arrival.
+     */
+    private final ArrayDeque<ChunkBreaks> queue = new ArrayDeque<>();
+
+    public BlockBreakQueue(SoftClaimsPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Starts draining the queue every tick.
+     */
+    public void initialize() {
+        Bukkit.getPluginManager().registerEvents(this, plugin);
+        Bukkit.getScheduler().runTaskTimer(plugin, () -> drain(
+                plugin.getSoftClaimsConfig().getBreakTickBudget()), 1, 1);
+    }
+
+    /**
+     * Queues a block to be broken.
+     * The block is only broken if its type didn't change in the meantime.
+     * @param block The block.
+     */
+    public void add(Block block) {
+        World world = block.getWorld();
+        int chunkX = block.getX() >> 4;
+        int chunkZ = block.getZ() >> 4;
+        long key = DurabilityStorage.getChunkKey(chunkX, chunkZ);
+        ChunkBreaks chunkBreaks = pendingBreaks.computeIfAbsent(world, (w) -> new HashMap<>())
+                .get(key);
+        if (chunkBreaks == null) {
+            chunkBreaks = new ChunkBreaks(world, chunkX, chunkZ, key);
+            pendingBreaks.get(world).put(key, chunkBreaks);
+            queue.add(chunkBreaks);
+        } else if (chunkBreaks.parked) {
+            unpark(chunkBreaks);
+        }
+        chunkBreaks.blocks.add(block);
+        chunkBreaks.types.add(block.getType());
+    }
+
+    /**
+     * Queues blocks to be broken.
+     * @param blocks The blocks.
+     */
+    public void addAll(Collection<Block> blocks) {
+        for (Block block : blocks) {
+            add(block);
+        }
+    }
+
+    /**
+     * Breaks all queued blocks of loaded chunks at once.
+     */
+    public void drainAll() {
+        drain(Long.MAX_VALUE);
+    }
+
+    /**
+     * Breaks queued blocks until the time budget runs out.
+     * At least one block is broken per call.
+     * @param budget The time budget in nanoseconds.
+     */
+    private void drain(long budget) {
+        if (queue.isEmpty()) return;
+        boolean mergeDrops = plugin.getSoftClaimsConfig().isMergeDrops();
+        long start = System.nanoTime();
+        boolean progressed = false;
+        while (!queue.isEmpty()) {
+            ChunkBreaks chunkBreaks = queue.poll();
+            if (!chunkBreaks.world.isChunkLoaded(chunkBreaks.chunkX, chunkBreaks.chunkZ)) {
+                // unloaded chunks would have to be loaded synchronously,
+                // park them until the chunk loads again
+                chunkBreaks.parked = true;
+                continue;
+            }
+
+            List<ItemStack> drops = mergeDrops ? new ArrayList<>() : null;
+            Location dropLocation = null;
+            while (chunkBreaks.next < chunkBreaks.blocks.size()
+                    && (!progressed || System.nanoTime() - start < budget)) {
+                progressed = true;
+                Block block = chunkBreaks.blocks.get(chunkBreaks.next);
+                Material type = chunkBreaks.types.get(chunkBreaks.next);
+                chunkBreaks.next++;
+
+                // skip blocks which changed since they were queued
+                if (block.getType() != type) continue;
+                if (drops == null) {
+                    block.breakNaturally();
+                    continue;
+                }
+
+                // collect drops to merge them
+                if (dropLocation == null) {
+                    dropLocation = block.getLocation().add(0.5, 0.5, 0.5);
+                }
+                for (ItemStack drop : block.getDrops()) {
+                    mergeDrop(drops, drop);
+                }
+
+                // play the break particles and sound, like breaking naturally
+                chunkBreaks.world.playEffect(block.getLocation(), Effect.STEP_SOUND, type);
+                block.setType(Material.AIR);
+            }
+
+            // drop merged items at the first broken block
+            if (drops != null && dropLocation != null) {
+                for (ItemStack drop : drops) {
+                    chunkBreaks.world.dropItemNaturally(dropLocation, drop);
+                }
+            }
+
+            // out of budget, continue with this chunk next tick
+            if (chunkBreaks.next < chunkBreaks.blocks.size()) {
+                queue.addFirst(chunkBreaks);
+                return;
+            }
+
+            // chunk done
+            Map<Long, ChunkBreaks> worldBreaks = pendingBreaks.get(chunkBreaks.world);
+            worldBreaks.remove(chunkBreaks.key);
+            if (worldBreaks.isEmpty()) {
+                pendingBreaks.remove(chunkBreaks.world);
+            }
+            if (System.nanoTime() - start >= budget) return;
+        }
+    }
+
+    /**
+     * Queues the parked breaks of a chunk again.
+     * @param chunkBreaks The parked breaks.
+     */
+    private void unpark(ChunkBreaks chunkBreaks) {
+        chunkBreaks.parked = false;
+        queue.add(chunkBreaks);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        Map<Long, ChunkBreaks> worldBreaks = pendingBreaks.get(event.getWorld());
+        if (worldBreaks == null) return;
+        Chunk chunk = event.getChunk();
+        ChunkBreaks chunkBreaks = worldBreaks.get(
+                DurabilityStorage.getChunkKey(chunk.getX(), chunk.getZ()));
+        if (chunkBreaks != null && chunkBreaks.parked) {
+            unpark(chunkBreaks);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        // drop the breaks of unloaded worlds
+        if (pendingBreaks.remove(event.getWorld()) == null) return;
+        Iterator<ChunkBreaks> iter = queue.iterator();
+        while (iter.hasNext()) {
+            if (iter.next().world == event.getWorld()) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Merges an item into a list of stacks, filling up similar stacks first.
+     * @param drops The merged stacks.
+     * @param drop The item to merge.
+     */
+    private static void mergeDrop(List<ItemStack> drops, ItemStack drop) {
+        int amount = drop.getAmount();
+        for (ItemStack stack : drops) {
+            if (amount <= 0) return;
+            if (!stack.isSimilar(drop)) continue;
+            int added = Math.min(amount, stack.getMaxStackSize() - stack.getAmount());
+            if (added <= 0) continue;
+            stack.setAmount(stack.getAmount() + added);
+            amount -= added;
+        }
+        while (amount > 0) {
+            ItemStack stack = drop.clone();
+            int added = Math.min(amount, Math.max(1, stack.getMaxStackSize()));
+            stack.setAmount(added);
+            drops.add(stack);
+            amount -= added;
+        }
+    }
+
+    /**
+     * Pending breaks of a single chunk.
+     */
+    private static class ChunkBreaks {
+        private final World world;
+        private final int chunkX;
+        private final int chunkZ;
+        private final long key;
+        private final List<Block> blocks = new ArrayList<>();
+        private final List<Material> types = new ArrayList<>();
+
+        /**
+         * Index of the next block to break.
+         */
+        private int next;
+
+        /**
+         * Whether the chunk was unloaded and waits to be loaded again.
+         */
+        private boolean parked;
+
+        private ChunkBreaks(World world, int chunkX, int chunkZ, long key) {
+            this.world = world;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.key = key;
+        }
+    }
+}
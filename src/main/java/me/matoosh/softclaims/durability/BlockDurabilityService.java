@@ -1,16 +1,16 @@
 package me.matoosh.softclaims.durability;
 
-import me.matoosh.blockmetadata.BlockMetadataStorage;
-import me.matoosh.blockmetadata.exception.ChunkBusyException;
-import me.matoosh.blockmetadata.exception.ChunkNotLoadedException;
 import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.config.SoftClaimsConfig;
+import me.matoosh.softclaims.exception.ChunkBusyException;
+import me.matoosh.softclaims.exception.ChunkNotLoadedException;
 import org.bukkit.Chunk;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class BlockDurabilityService {
 
@@ -22,7 +22,12 @@ public class BlockDurabilityService {
     /**
      * Reference to the durabilities storage service.
      */
-    private final BlockMetadataStorage<Double> durabilityStorage;
+    private final DurabilityStorage durabilityStorage;
+
+    /**
+     * Buffer of damage not yet merged into the storage.
+     */
+    private final DurabilityDeltaBuffer deltaBuffer;
 
     public BlockDurabilityService(SoftClaimsPlugin plugin) {
         // save plugin reference
@@ -32,7 +37,50 @@ public class BlockDurabilityService {
         Path durabilitiesDataDir = plugin.getDataFolder().toPath().resolve("data");
 
         // create durabilities storage
-        this.durabilityStorage = new BlockMetadataStorage<>(plugin, durabilitiesDataDir);
+        this.durabilityStorage = new DurabilityStorage(plugin, durabilitiesDataDir);
+
+        // create damage buffer
+        this.deltaBuffer = new DurabilityDeltaBuffer(plugin);
+    }
+
+    /**
+     * Initializes the component.
+     */
+    public void initialize() {
+        deltaBuffer.initialize();
+    }
+
+    /**
+     * Damages a block, deferring the write to the next flush of the damage buffer.
+     * Reads include the pending damage.
+     * @param block The block.
+     * @param damage The durability to take away.
+     */
+    public void queueDamage(Block block, int damage) {
+        deltaBuffer.add(block, damage);
+    }
+
+    /**
+     * Forgets a block which is about to be broken,
+     * dropping both its stored durability and its pending damage.
+     * Pending damage would otherwise be flushed after the block is gone
+     * and leave the stored entry behind.
+     * @param block The block.
+     */
+    public void clearDestroyedBlock(Block block)
+            throws ChunkBusyException, ChunkNotLoadedException {
+        synchronized (deltaBuffer) {
+            deltaBuffer.remove(block);
+            clearDurability(block);
+        }
+    }
+
+    /**
+     * Merges all pending damage into the storage.
+     * Has to be called from the main thread.
+     */
+    public void flushPendingDamage() {
+        deltaBuffer.flush();
     }
 
     /**
@@ -59,7 +107,8 @@ public class BlockDurabilityService {
         if (durability <= 0 || durability >= 1) {
             clearDurability(block);
         } else {
-            durabilityStorage.setMetadata(block, durability);
+            getChunkDurabilities(block).put(getPositionKey(block),
+                    ChunkDurabilityMap.quantize(durability));
         }
     }
 
@@ -68,50 +117,125 @@ public class BlockDurabilityService {
      * Relatively expensive operation.
      * @param chunk The chunk.
      * @param delta The change in durabilities.
-     * @return List of modified durability keys.
+     * @return Packed positions of the modified blocks.
      */
-    public List<String> modifyDurabilitiesInChunk(Chunk chunk, int delta)
+    public int[] modifyDurabilitiesInChunk(Chunk chunk, int delta)
             throws ChunkBusyException, ChunkNotLoadedException {
         // check if delta is correct
-        if (!Double.isFinite(delta)) return Collections.emptyList();
+        if (!Double.isFinite(delta)) return new int[0];
 
         // check if there are any durabilities in chunk
-        if (!durabilityStorage.hasMetadataForChunk(chunk)) {
-            return Collections.emptyList();
+        ChunkDurabilityMap durabilities = durabilityStorage.getChunk(chunk);
+        synchronized (durabilities) {
+            if (durabilities.isEmpty()) {
+                return new int[0];
+            }
+
+            // modify all durabilities
+            int[] modified = new int[durabilities.size()];
+            int[] modifiedCount = {0};
+            durabilities.updateAll((position, value, stamp) -> {
+                // get current durability
+                int totalDurability = getTotalDurability(chunk.getBlock(
+                        ChunkDurabilityMap.unpackX(position),
+                        ChunkDurabilityMap.unpackY(position),
+                        ChunkDurabilityMap.unpackZ(position)
+                ).getType());
+                if (totalDurability <= 0) return 0;
+                int durability = (int) Math.round(
+                        ChunkDurabilityMap.dequantize(value) * totalDurability);
+
+                // get new durability, cleared if outside of range
+                int newDurability = durability + delta;
+                if (newDurability <= 0 || newDurability >= totalDurability) return 0;
+
+                // update durability
+                modified[modifiedCount[0]++] = position;
+                return ChunkDurabilityMap.quantize((double) newDurability / totalDurability);
+            });
+            return Arrays.copyOf(modified, modifiedCount[0]);
+        }
+    }
+
+    /**
+     * Applies a batch of durability changes.
+     * Changes are grouped by chunk and each chunk's data is locked once
+     * for its whole group. Changes in chunks whose data isn't available
+     * are skipped together.
+     * @param batch The batch to apply.
+     * @return The applied batch, with outcomes set.
+     */
+    public DurabilityBatch applyBatch(DurabilityBatch batch) {
+        // group changes by chunk
+        Map<World, Map<Long, List<DurabilityBatch.Change>>> chunks = new HashMap<>();
+        for (DurabilityBatch.Change change : batch.getChanges()) {
+            chunks.computeIfAbsent(change.world, (w) -> new HashMap<>())
+                    .computeIfAbsent(DurabilityStorage.getChunkKey(change.chunkX, change.chunkZ),
+                            (k) -> new ArrayList<>())
+                    .add(change);
         }
 
-        // get chunk inner map
-        Map<String, Double> durabilities = durabilityStorage.modifyMetadataInChunk(chunk);
-
-        // modify all durabilities
-        List<String> modified = new ArrayList<>(durabilities.entrySet().size());
-        Iterator<Map.Entry<String, Double>> iter = durabilities.entrySet().iterator();
-        while (iter.hasNext()) {
-            // get current durability
-            Map.Entry<String, Double> entry = iter.next();
-            String[] posUnparsed = entry.getKey().split(",");
-            Block block = chunk.getBlock(
-                    Integer.parseInt(posUnparsed[0]),
-                    Integer.parseInt(posUnparsed[1]),
-                    Integer.parseInt(posUnparsed[2])
-            );
-            int durability = getAbsoluteDurability(block, entry.getValue());
-
-            // get new durability
-            double newDurability = getDurabilityRelative(block, durability + delta);
-
-            // clear if outside of range
-            if (newDurability <= 0 || newDurability >= 1) {
-                iter.remove();
-                continue;
+        // apply changes chunk by chunk
+        SoftClaimsConfig config = plugin.getSoftClaimsConfig();
+        for (Map.Entry<World, Map<Long, List<DurabilityBatch.Change>>> world : chunks.entrySet()) {
+            for (List<DurabilityBatch.Change> changes : world.getValue().values()) {
+                DurabilityBatch.Change first = changes.get(0);
+                ChunkDurabilityMap durabilities;
+                try {
+                    durabilities = durabilityStorage.getChunk(world.getKey(), first.chunkX, first.chunkZ);
+                } catch (ChunkBusyException | ChunkNotLoadedException e) {
+                    continue;
+                }
+                synchronized (durabilities) {
+                    for (DurabilityBatch.Change change : changes) {
+                        applyChange(durabilities, change, config);
+                    }
+                }
             }
+        }
+        return batch;
+    }
 
-            // update durability
-            entry.setValue(newDurability);
-            modified.add(entry.getKey());
+    /**
+     * Applies a single change of a batch.
+     */
+    private void applyChange(ChunkDurabilityMap durabilities,
+                             DurabilityBatch.Change change, SoftClaimsConfig config) {
+        if (change.type == DurabilityBatch.Change.SET) {
+            if (!Double.isFinite(change.value)) return;
+            if (change.value <= 0 || change.value >= 1) {
+                durabilities.remove(change.position);
+                change.outcome = DurabilityBatch.Outcome.CLEARED;
+            } else {
+                durabilities.put(change.position, ChunkDurabilityMap.quantize(change.value));
+                change.outcome = DurabilityBatch.Outcome.UPDATED;
+            }
+            return;
         }
 
-        return modified;
+        // damage block
+        int totalDurability = config.getTotalDurability(change.material);
+        if (totalDurability <= 0) return;
+        int stored = durabilities.get(change.position);
+        if (stored >= 0 && config.isLazyRepair()) {
+            stored = regenerate(stored, durabilities.getStamp(change.position),
+                    totalDurability, ChunkDurabilityMap.currentStamp(), config);
+            if (stored >= ChunkDurabilityMap.MAX_VALUE) stored = -1;
+        }
+        double relative = stored < 0 ? 1d : ChunkDurabilityMap.dequantize(stored);
+        int durability = (int) Math.round(relative * totalDurability);
+        durability = (int) (durability - change.value);
+        if (durability >= totalDurability) {
+            durabilities.remove(change.position);
+            change.outcome = DurabilityBatch.Outcome.CLEARED;
+        } else if (durability > 0) {
+            durabilities.put(change.position,
+                    ChunkDurabilityMap.quantize((double) durability / totalDurability));
+            change.outcome = DurabilityBatch.Outcome.DAMAGED;
+        } else {
+            durabilities.remove(change.position);
+            change.outcome = DurabilityBatch.Outcome.DESTROYED;
+        }
     }
 
     /**
@@ -123,11 +247,7 @@ public class BlockDurabilityService {
     public int countDamagedInChunk(Chunk chunk)
             throws ChunkBusyException, ChunkNotLoadedException {
         // get durabilities for chunk
-        Map<String, Double> metadata = durabilityStorage.getMetadataInChunk(chunk);
-        if (metadata == null) {
-            return 0;
-        }
-        return metadata.size();
+        return durabilityStorage.getChunk(chunk).size();
     }
 
     /**
@@ -159,14 +279,48 @@ public class BlockDurabilityService {
             return 0d;
         }
 
-        // get block durability
-        Double durability = durabilityStorage.getMetadata(block);
-        if (durability == null) {
+        // get block durability, including damage which wasn't flushed yet
+        ChunkDurabilityMap durabilities = getChunkDurabilities(block);
+        int key = getPositionKey(block);
+        SoftClaimsConfig config = plugin.getSoftClaimsConfig();
+        int totalDurability = config.getTotalDurability(block.getType());
+        double relative;
+        int pendingDamage;
+        synchronized (deltaBuffer) {
+            pendingDamage = deltaBuffer.get(block);
+            synchronized (durabilities) {
+                relative = getStoredDurability(durabilities, key, totalDurability, config);
+            }
+        }
+        if (pendingDamage != 0 && totalDurability > 0) {
+            relative -= (double) pendingDamage / totalDurability;
+        }
+        return Math.max(0d, Math.min(1d, relative));
+    }
+
+    /**
+     * Gets the stored relative durability of a block.
+     * The chunk's durabilities have to be locked by the caller.
+     */
+    private double getStoredDurability(ChunkDurabilityMap durabilities, int key,
+                                       int totalDurability, SoftClaimsConfig config) {
+        int durability = durabilities.get(key);
+        if (durability < 0) {
             // no data stored for the block
             // default to total durability
             return 1d;
         }
-        return durability;
+
+        // regenerate, dropping the entry once fully healed
+        if (config.isLazyRepair()) {
+            durability = regenerate(durability, durabilities.getStamp(key),
+                    totalDurability, ChunkDurabilityMap.currentStamp(), config);
+            if (durability >= ChunkDurabilityMap.MAX_VALUE) {
+                durabilities.remove(key);
+                return 1d;
+            }
+        }
+        return ChunkDurabilityMap.dequantize(durability);
     }
 
     /**
@@ -176,12 +330,12 @@ public class BlockDurabilityService {
      */
     public boolean hasDurability(Block block) {
         // check if this world is disabled
-        if (plugin.getConfig().getStringList("disabledWorlds")
-                .contains(block.getWorld().getName())) {
+        SoftClaimsConfig config = plugin.getSoftClaimsConfig();
+        if (config.isWorldDisabled(block.getWorld())) {
             return false;
         }
         // check if block has durability set
-        if (!plugin.getConfig().contains("blocks." + block.getType().name() + ".durability")) {
+        if (!config.isTracked(block.getType())) {
             return false;
         }
         // check if block is in a faction chunk
@@ -194,7 +348,7 @@ public class BlockDurabilityService {
      */
     public void clearDurabilitiesInChunk(Chunk chunk)
             throws ChunkBusyException, ChunkNotLoadedException {
-        durabilityStorage.removeMetadataForChunk(chunk);
+        durabilityStorage.getChunk(chunk).clear();
     }
 
     /**
@@ -203,33 +357,88 @@ public class BlockDurabilityService {
      */
     public void clearDurability(Block block)
             throws ChunkBusyException, ChunkNotLoadedException {
-        durabilityStorage.removeMetadata(block);
+        getChunkDurabilities(block).remove(getPositionKey(block));
     }
 
     /**
-     * Gets a list of damaged blocks within a chunk.
+     * Takes a snapshot of the damaged blocks within a chunk.
+     * Has to be taken from the main thread, but can then be read
+     * from any thread and isn't affected by later durability changes.
      * @param chunk The chunk.
-     * @return A list of damaged blocks within the chunk.
-     * @throws ChunkBusyException Thrown if the chunks is busy.
+     * @return The snapshot of damaged blocks.
      */
-    public List<DamagedBlock> getDamagedBlocksInChunk(Chunk chunk)
+    public ChunkDurabilitySnapshot getDamagedSnapshot(Chunk chunk)
             throws ChunkBusyException, ChunkNotLoadedException {
-        // check if there are durabilities in chunk
-        if (durabilityStorage.hasMetadataForChunk(chunk)) {
-            return Collections.emptyList();
+        ChunkDurabilityMap durabilities = durabilityStorage.getChunk(chunk);
+        regenerate(chunk, durabilities);
+        return durabilities.snapshot();
+    }
+
+    /**
+     * Writes the durability regenerated since the entries of a chunk were
+     * last changed into the entries, dropping fully healed ones.
+     * Does nothing unless lazy repair is enabled.
+     * Has to be called from the main thread.
+     * @param chunk The chunk.
+     * @param durabilities The durability data of the chunk.
+     */
+    void regenerate(Chunk chunk, ChunkDurabilityMap durabilities) {
+        SoftClaimsConfig config = plugin.getSoftClaimsConfig();
+        if (!config.isLazyRepair()) return;
+        int now = ChunkDurabilityMap.currentStamp();
+        durabilities.updateAll((position, value, stamp) -> regenerate(value, stamp,
+                config.getTotalDurability(chunk.getBlock(
+                        ChunkDurabilityMap.unpackX(position),
+                        ChunkDurabilityMap.unpackY(position),
+                        ChunkDurabilityMap.unpackZ(position)).getType()),
+                now, config));
+    }
+
+    /**
+     * Computes the durability of an entry regenerated since it was last changed.
+     * Durability regenerates by repairDelta every repairFrequency seconds.
+     * @param value The stored quantized durability.
+     * @param stamp The time the entry was last changed.
+     * @param totalDurability The total durability of the block.
+     * @param now The current time.
+     * @param config The config snapshot.
+     * @return The regenerated quantized durability, MAX_VALUE once fully healed.
+     */
+    private static int regenerate(int value, int stamp, int totalDurability,
+                                  int now, SoftClaimsConfig config) {
+        if (totalDurability <= 0) return ChunkDurabilityMap.MAX_VALUE;
+        int elapsed = now - stamp;
+        if (elapsed <= 0 || config.getRepairDelta() <= 0
+                || config.getRepairFrequency() <= 0) {
+            return value;
         }
-        // get damaged blocks in chunk
-        return durabilityStorage.getMetadataInChunk(chunk)
-            .entrySet().parallelStream().map((entry) -> {
-                String[] position = entry.getKey().split(",");
-                return new DamagedBlock(
-                        chunk.getBlock(Integer.parseInt(position[0]),
-                                Integer.parseInt(position[1]),
-                                Integer.parseInt(position[2])),
-                        entry.getValue()
-                );
-        }).collect(Collectors.toList());
+        double regenerated = (double) config.getRepairDelta() * elapsed
+                / config.getRepairFrequency() / totalDurability;
+        double durability = ChunkDurabilityMap.dequantize(value) + regenerated;
+        if (durability >= 1d) return ChunkDurabilityMap.MAX_VALUE;
+        return ChunkDurabilityMap.quantize(durability);
+    }
+
+    /**
+     * Gets the durability data of the chunk a block is in.
+     * @param block The block.
+     * @return The durability data of the chunk.
+     */
+    private ChunkDurabilityMap getChunkDurabilities(Block block)
+            throws ChunkBusyException, ChunkNotLoadedException {
+        return durabilityStorage.getChunk(block.getWorld(),
+                block.getX() >> 4, block.getZ() >> 4);
     }
+
+    /**
+     * Gets the chunk local key of a block.
+     * @param block The block.
+     * @return The packed position of the block.
+     */
+    private static int getPositionKey(Block block) {
+        return ChunkDurabilityMap.packPosition(block.getX(), block.getY(), block.getZ());
+    }
+
     /**
      * Gets relative durability of a block
      * given its absolute durability.
@@ -250,7 +459,7 @@ public class BlockDurabilityService {
      * @return The absolute durability of a block.
      */
     public int getAbsoluteDurability(Block block, double durability) {
-        return (int) (durability * getTotalDurability(block.getType()));
+        return (int) Math.round(durability * getTotalDurability(block.getType()));
     }
 
     /**
@@ -260,9 +469,7 @@ public class BlockDurabilityService {
      * @return The total durability of a block.
      */
     public int getTotalDurability(Material material) {
-        if (material == null) return 0;
-        return plugin.getConfig().getInt("blocks."
-                + material.name() + ".durability", 0);
+        return plugin.getSoftClaimsConfig().getTotalDurability(material);
     }
 
     /**
@@ -278,29 +485,7 @@ public class BlockDurabilityService {
         return Math.random() < probability;
     }
 
-
-    /**
-     * Damaged block information.
-     */
-    public static class DamagedBlock {
-        private final Block block;
-        private final double durability;
-
-        public DamagedBlock(Block block, double durability) {
-            this.block = block;
-            this.durability = durability;
-        }
-
-        public Block getBlock() {
-            return block;
-        }
-
-        public double getDurability() {
-            return durability;
-        }
-    }
-
-    public BlockMetadataStorage<Double> getDurabilityStorage() {
+    public DurabilityStorage getDurabilityStorage() {
         return durabilityStorage;
     }
 }
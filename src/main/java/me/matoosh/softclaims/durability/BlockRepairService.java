@@ -1,28 +1,52 @@
 package me.matoosh.softclaims.durability;
 
-import me.matoosh.blockmetadata.exception.ChunkBusyException;
-import me.matoosh.blockmetadata.exception.ChunkNotLoadedException;
 import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.config.SoftClaimsConfig;
+import me.matoosh.softclaims.exception.ChunkBusyException;
+import me.matoosh.softclaims.exception.ChunkNotLoadedException;
+import me.matoosh.softclaims.faction.FactionService;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.Particle;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.stream.Collectors;
 
 public class BlockRepairService {
     /**
      * List of recently healed blocks.
      */
-    private final ConcurrentMap<Chunk, Queue<int[]>> healedBlocks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Chunk, HealedBlocks> healedBlocks = new ConcurrentHashMap<>();
+
+    /**
+     * Chunks waiting to be repaired in the current period.
+     */
+    private final Queue<RepairTarget> repairQueue = new ArrayDeque<>();
+
+    /**
+     * Ticks since the current repair period started.
+     */
+    private long periodTick = 0;
+
+    /**
+     * Minimum number of chunks to repair each tick in the current period.
+     */
+    private int minChunksPerTick = 0;
+
+    /**
+     * Log of the repair charges.
+     */
+    private final RepairLedger ledger;
 
     /**
      * Reference to the plugin.
@@ -33,59 +57,173 @@ public class BlockRepairService {
 
     public BlockRepairService(SoftClaimsPlugin plugin) {
         this.plugin = plugin;
+        this.ledger = new RepairLedger(plugin,
+                plugin.getDataFolder().toPath().resolve("repair-ledger.csv"));
     }
 
     /**
      * Initializes the component.
      */
     public void initialize() {
-        int frequency = 20 * plugin.getConfig().getInt("repair.repairFrequency", 300);
-        Bukkit.getScheduler().runTaskTimerAsynchronously(
-                plugin, this::repairBlocksTask, frequency, frequency);
+        ledger.open();
+        Bukkit.getScheduler().runTaskTimer(plugin, this::repairSchedulerTick, 1, 1);
         Bukkit.getScheduler().runTaskTimer(plugin, this::repairTick, 10, 10);
     }
 
     /**
-     * Runs asynchronously and heals faction blocks.
-     */
-    private void repairBlocksTask() {
-        // get repair delta
-        int repairDelta = plugin.getConfig().getInt("repair.repairDelta", 0);
-        double repairCost = plugin.getConfig().getInt("repair.repairCost", 0);
-        if (repairDelta == 0) return;
-
-        // repair blocks in every faction
-        List<String> factions = plugin.getFactionService().getFactions();
-        for (String faction : factions) {
-            for (Chunk factionChunk :
-                    plugin.getFactionService().getAllFactionChunks(faction)) {
-                try {
-                    // check if faction can afford
-                    int blocksToRepairInChunk = plugin.getBlockDurabilityService()
-                            .countDamagedInChunk(factionChunk);
-                    double cost = blocksToRepairInChunk * repairCost;
-                    if (!plugin.getFactionService().chargeFaction(faction, cost)) {
-                        break;
+     * Settles the repairs done so far and closes the ledger.
+     */
+    public void shutdown() {
+        settleQueuedBills();
+        ledger.close();
+    }
+
+    /**
+     * Called every tick.
+     * Starts a new repair period when the previous one is over and
+     * repairs queued chunks round-robin within the tick budget.
+     */
+    private void repairSchedulerTick() {
+        SoftClaimsConfig config = plugin.getSoftClaimsConfig();
+        if (config.getRepairDelta() == 0 || config.isLazyRepair()) {
+            settleQueuedBills();
+            return;
+        }
+
+        // start a new period
+        if (++periodTick >= 20L * config.getRepairFrequency()) {
+            periodTick = 0;
+            enqueueRepairTargets(config);
+            minChunksPerTick = (int) Math.ceil((double) repairQueue.size()
+                    / Math.max(1, 20L * config.getRepairFrequency()));
+        }
+
+        // repair chunks, at least enough to get through the queue within the period
+        long deadline = System.nanoTime() + config.getRepairTickBudget();
+        int repaired = 0;
+        while (!repairQueue.isEmpty() && (repaired < minChunksPerTick
+                || (repaired < config.getRepairChunksPerTick() && System.nanoTime() < deadline))) {
+            RepairTarget target = repairQueue.poll();
+            repairChunk(target, config);
+            if (--target.bill.pendingChunks == 0) {
+                settleBill(target.bill);
+            }
+            repaired++;
+        }
+    }
+
+    /**
+     * Queues every damaged claimed chunk for repair, grouped by faction.
+     * Each faction's chunks are queued most damaged first and
+     * share a single bill for the period, paid up front.
+     * @param config The config snapshot.
+     */
+    private void enqueueRepairTargets(SoftClaimsConfig config) {
+        settleQueuedBills();
+        DamagedChunkIndex damagedChunkIndex = plugin.getBlockDurabilityService()
+                .getDurabilityStorage().getDamagedChunkIndex();
+        Map<Long, List<RepairTarget>> targetsByFaction = new LinkedHashMap<>();
+        for (World world : Bukkit.getWorlds()) {
+            if (config.isWorldDisabled(world)) continue;
+            damagedChunkIndex.forEachDamagedChunk(world, (chunkX, chunkZ, damagedBlocks) -> {
+                long factionId = plugin.getFactionService().getFactionIdAt(world, chunkX, chunkZ);
+                if (factionId == FactionService.NO_FACTION) return;
+                targetsByFaction.computeIfAbsent(factionId, (f) -> new ArrayList<>())
+                        .add(new RepairTarget(world.getName(), chunkX, chunkZ, damagedBlocks));
+            });
+        }
+        for (Map.Entry<Long, List<RepairTarget>> faction : targetsByFaction.entrySet()) {
+            long factionId = faction.getKey();
+            List<RepairTarget> targets = faction.getValue();
+            targets.sort((a, b) -> Integer.compare(b.damagedBlocks, a.damagedBlocks));
+
+            FactionBill bill;
+            if (config.getRepairCost() > 0) {
+                // plan the repairs the faction can afford, most damaged chunks first
+                double balance = plugin.getFactionService().getFactionBalance(factionId);
+                double planned = 0;
+                for (RepairTarget target : targets) {
+                    double cost = target.damagedBlocks * config.getRepairCost();
+                    if (planned + cost <= balance) {
+                        planned += cost;
                     }
+                }
 
-                    // heal blocks
-                    healedBlocks.put(
-                        factionChunk,
-                        plugin.getBlockDurabilityService()
-                        .modifyDurabilitiesInChunk(factionChunk, repairDelta)
-                        .stream().map((s) -> {
-                            String[] posUnparsed = s.split(",");
-                            return new int[]{
-                                Integer.parseInt(posUnparsed[0]),
-                                Integer.parseInt(posUnparsed[1]),
-                                Integer.parseInt(posUnparsed[2])
-                            };
-                        }).collect(Collectors.toCollection(LinkedBlockingQueue::new)));
-                } catch (ChunkBusyException | ChunkNotLoadedException ignored) {}
+                // charge the planned repairs before healing anything,
+                // what isn't used is refunded when the bill is settled
+                boolean charged = planned > 0
+                        && plugin.getFactionService().chargeFaction(factionId, planned);
+                bill = new FactionBill(factionId, balance, charged ? planned : 0);
+            } else {
+                bill = new FactionBill(factionId, 0, Double.POSITIVE_INFINITY);
             }
+            for (RepairTarget target : targets) {
+                target.bill = bill;
+                repairQueue.add(target);
+            }
+            bill.pendingChunks = targets.size();
         }
     }
 
+    /**
+     * Heals the blocks in a damaged claimed chunk, if it fits in what the faction prepaid.
+     * Chunks which aren't loaded are skipped rather than loaded.
+     * @param target The chunk to repair.
+     * @param config The config snapshot.
+     */
+    private void repairChunk(RepairTarget target, SoftClaimsConfig config) {
+        // skip chunks which aren't loaded or are in disabled worlds
+        World world = Bukkit.getWorld(target.worldName);
+        if (world == null || config.isWorldDisabled(world)
+                || !world.isChunkLoaded(target.chunkX, target.chunkZ)) {
+            return;
+        }
+        Chunk chunk = world.getChunkAt(target.chunkX, target.chunkZ);
+
+        try {
+            // check if the repair fits in what's left of the prepaid amount
+            FactionBill bill = target.bill;
+            int blocksToRepairInChunk = plugin.getBlockDurabilityService()
+                    .countDamagedInChunk(chunk);
+            if (blocksToRepairInChunk == 0) return;
+            double cost = blocksToRepairInChunk * config.getRepairCost();
+            if (bill.cost + cost > bill.prepaid) return;
+
+            // heal blocks
+            healedBlocks.put(chunk, new HealedBlocks(plugin.getBlockDurabilityService()
+                    .modifyDurabilitiesInChunk(chunk, config.getRepairDelta())));
+            bill.cost += cost;
+            bill.chunks++;
+            bill.blocks += blocksToRepairInChunk;
+        } catch (ChunkBusyException | ChunkNotLoadedException ignored) {}
+    }
+
+    /**
+     * Refunds what a faction prepaid for skipped repairs and records the bill in the ledger.
+     * @param bill The bill of the faction.
+     */
+    private void settleBill(FactionBill bill) {
+        if (bill.settled) return;
+        bill.settled = true;
+        if (bill.prepaid <= 0 || Double.isInfinite(bill.prepaid)) return;
+        double refund = bill.prepaid - bill.cost;
+        if (refund > 0) {
+            plugin.getFactionService().refundFaction(bill.factionId, refund);
+        }
+        ledger.record(bill.factionId, bill.chunks, bill.blocks, bill.balance, bill.cost);
+    }
+
+    /**
+     * Settles the bills of the current period, refunding
+     * the repairs which weren't done, and clears the repair queue.
+     */
+    private void settleQueuedBills() {
+        for (RepairTarget target : repairQueue) {
+            settleBill(target.bill);
+        }
+        repairQueue.clear();
+    }
+
     /**
      * Called every 10 ticks.
      * Shows block animations for healed blocks.
@@ -98,20 +236,20 @@ public class BlockRepairService {
 
         // animate blocks
         int i = 0;
-        Iterator<Map.Entry<Chunk, Queue<int[]>>> iter = healedBlocks.entrySet().iterator();
+        Iterator<Map.Entry<Chunk, HealedBlocks>> iter = healedBlocks.entrySet().iterator();
         while (iter.hasNext() && i < ANIMATIONS_PER_TICK) {
             // get blocks in chunk to animate
-            Map.Entry<Chunk, Queue<int[]>> entry = iter.next();
-            Queue<int[]> blocks = entry.getValue();
+            Map.Entry<Chunk, HealedBlocks> entry = iter.next();
+            HealedBlocks blocks = entry.getValue();
 
             // spawn particles
-            while (blocks.size() > 0 && i < ANIMATIONS_PER_TICK) {
-                doHealAnimation(entry.getKey(), blocks.remove());
+            while (blocks.hasNext() && i < ANIMATIONS_PER_TICK) {
+                doHealAnimation(entry.getKey(), blocks.next());
                 i++;
             }
 
             // remove handled chunks
-            if (blocks.size() == 0) {
+            if (!blocks.hasNext()) {
                 iter.remove();
             }
         }
@@ -120,10 +258,13 @@ public class BlockRepairService {
     /**
      * Do a heal animation at block.
      * @param chunk The chunk to do the heal animation in.
-     * @param position The position of the block in the chunk to animate.
+     * @param position The packed position of the block in the chunk to animate.
      */
-    private void doHealAnimation(Chunk chunk, int[] position) {
-        Block b = chunk.getBlock(position[0], position[1], position[2]);
+    private void doHealAnimation(Chunk chunk, int position) {
+        Block b = chunk.getBlock(
+                ChunkDurabilityMap.unpackX(position),
+                ChunkDurabilityMap.unpackY(position),
+                ChunkDurabilityMap.unpackZ(position));
         for (int i = 0; i < 6; i++) {
             Block adjacent = b.getRelative(blockFaceFromInt(i));
             if (adjacent.isEmpty()) {
@@ -153,4 +294,69 @@ public class BlockRepairService {
                 return BlockFace.WEST;
         }
     }
+
+    /**
+     * Packed positions of healed blocks in a chunk
+     * which are yet to be animated.
+     */
+    private static class HealedBlocks {
+        private final int[] positions;
+        private int cursor = 0;
+
+        public HealedBlocks(int[] positions) {
+            this.positions = positions;
+        }
+
+        public boolean hasNext() {
+            return cursor < positions.length;
+        }
+
+        public int next() {
+            return positions[cursor++];
+        }
+    }
+
+    /**
+     * A damaged claimed chunk queued for repair.
+     */
+    private static class RepairTarget {
+        private final String worldName;
+        private final int chunkX;
+        private final int chunkZ;
+        private final int damagedBlocks;
+        private FactionBill bill;
+
+        public RepairTarget(String worldName, int chunkX, int chunkZ, int damagedBlocks) {
+            this.worldName = worldName;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.damagedBlocks = damagedBlocks;
+        }
+    }
+
+    /**
+     * The repairs of a faction in one period, paid up front
+     * and settled once all its chunks were handled.
+     */
+    private static class FactionBill {
+        private final long factionId;
+        private final double balance;
+        private final double prepaid;
+        private int pendingChunks;
+        private int chunks;
+        private int blocks;
+        private double cost;
+        private boolean settled;
+
+        /**
+         * @param factionId The id of the faction.
+         * @param balance The balance of the faction before it prepaid.
+         * @param prepaid The amount prepaid for the period's repairs.
+         */
+        public FactionBill(long factionId, double balance, double prepaid) {
+            this.factionId = factionId;
+            this.balance = balance;
+            this.prepaid = prepaid;
+        }
+    }
 }
@@ -0,0 +1,461 @@
+package me.matoosh.softclaims.durability;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Durability data of a single chunk.
+ * Block positions are packed into an int key and durabilities
+ * are stored as 16-bit fractions in an open-addressing table,
+ * so no objects are created per damaged block.
+ * Every entry also stores the time it was last changed,
+ * so regeneration can be computed when the entry is read.
+ */
+public class ChunkDurabilityMap {
+
+    /**
+     * Key marking an empty slot. Can't collide with a packed position.
+     */
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    /**
+     * Quantized value representing full durability.
+     */
+    public static final int MAX_VALUE = 0xFFFF;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Magic number at the start of serialized data ("SCDM").
+     */
+    private static final int MAGIC = 0x5343444D;
+
+    /**
+     * Version of the serialized format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the serialized header: magic, version and entry count.
+     */
+    public static final int HEADER_SIZE = 12;
+
+    /**
+     * Size of a serialized entry: packed position and quantized durability.
+     */
+    private static final int ENTRY_SIZE = 6;
+
+    /**
+     * Epoch of the entry timestamps, in unix seconds (2021-01-01).
+     */
+    private static final long STAMP_EPOCH = 1609459200L;
+
+    private int[] keys;
+    private char[] values;
+    private int[] stamps;
+    private int size;
+
+    /**
+     * Whether the data changed since it was last persisted.
+     */
+    private boolean dirty;
+
+    /**
+     * Listener notified whenever the number of entries changes.
+     */
+    private SizeListener sizeListener;
+
+    public ChunkDurabilityMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ChunkDurabilityMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Gets the quantized durability stored for a position.
+     * @param key The packed position.
+     * @return The quantized durability or -1 if nothing is stored.
+     */
+    public synchronized int get(int key) {
+        int slot = find(key);
+        return slot < 0 ? -1 : values[slot];
+    }
+
+    /**
+     * Gets the time the durability of a position was last changed.
+     * @param key The packed position.
+     * @return The timestamp or -1 if nothing is stored.
+     */
+    public synchronized int getStamp(int key) {
+        int slot = find(key);
+        return slot < 0 ? -1 : stamps[slot];
+    }
+
+    /**
+     * Stores the quantized durability for a position,
+     * stamped with the current time.
+     * @param key The packed position.
+     * @param value The quantized durability, between 1 and MAX_VALUE - 1.
+     */
+    public synchronized void put(int key, int value) {
+        put(key, value, currentStamp());
+    }
+
+    /**
+     * Stores the quantized durability for a position.
+     * @param key The packed position.
+     * @param value The quantized durability, between 1 and MAX_VALUE - 1.
+     * @param stamp The time the durability was last changed.
+     */
+    public synchronized void put(int key, int value, int stamp) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                values[slot] = (char) value;
+                stamps[slot] = stamp;
+                dirty = true;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = (char) value;
+        stamps[slot] = stamp;
+        dirty = true;
+        if (++size > (keys.length >> 1) + (keys.length >> 2)) {
+            rehash(keys.length << 1);
+        }
+        notifySizeChanged();
+    }
+
+    /**
+     * Removes the durability stored for a position.
+     * @param key The packed position.
+     * @return Whether anything was removed.
+     */
+    public synchronized boolean remove(int key) {
+        int slot = find(key);
+        if (slot < 0) return false;
+        removeSlot(slot);
+        dirty = true;
+        notifySizeChanged();
+        return true;
+    }
+
+    /**
+     * Removes all stored durabilities.
+     */
+    public synchronized void clear() {
+        if (size == 0) return;
+        allocate(DEFAULT_CAPACITY);
+        size = 0;
+        dirty = true;
+        notifySizeChanged();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets all the stored positions.
+     * @return Packed positions of all the stored entries.
+     */
+    public synchronized int[] keys() {
+        int[] result = new int[size];
+        int i = 0;
+        for (int key : keys) {
+            if (key != EMPTY) {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Updates all entries in place, stamping the changed ones with the current time.
+     * Entries updated to a value outside of the 1 to MAX_VALUE - 1 range are removed.
+     * Entries updated to their current value keep their stamp.
+     * @param updater The updater returning the new value of each entry.
+     */
+    public synchronized void updateAll(EntryUpdater updater) {
+        int now = currentStamp();
+        int[] removed = null;
+        int removedCount = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == EMPTY) continue;
+            int value = updater.update(keys[i], values[i], stamps[i]);
+            if (value <= 0 || value >= MAX_VALUE) {
+                if (removed == null) {
+                    removed = new int[size];
+                }
+                removed[removedCount++] = keys[i];
+            } else if (value != values[i]) {
+                values[i] = (char) value;
+                stamps[i] = now;
+                dirty = true;
+            }
+        }
+        for (int i = 0; i < removedCount; i++) {
+            remove(removed[i]);
+        }
+    }
+
+    /**
+     * Creates an immutable copy of the entries.
+     * @return The snapshot.
+     */
+    public synchronized ChunkDurabilitySnapshot snapshot() {
+        int[] positions = new int[size];
+        char[] durabilities = new char[size];
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                positions[j] = keys[i];
+                durabilities[j++] = values[i];
+            }
+        }
+        return new ChunkDurabilitySnapshot(positions, durabilities);
+    }
+
+    /**
+     * Sets the listener notified whenever the number of entries changes.
+     * @param sizeListener The listener.
+     */
+    public synchronized void setSizeListener(SizeListener sizeListener) {
+        this.sizeListener = sizeListener;
+    }
+
+    private void notifySizeChanged() {
+        if (sizeListener != null) {
+            sizeListener.onSizeChanged(size);
+        }
+    }
+
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    public synchronized void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    /**
+     * Serializes the entries into a byte array.
+     * The header and entries are followed by the entry timestamps.
+     * @return The serialized entries.
+     */
+    public synchronized byte[] serialize() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + size * (ENTRY_SIZE + 4));
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                buffer.putInt(keys[i]);
+                buffer.putChar(values[i]);
+            }
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                buffer.putInt(stamps[i]);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Deserializes entries written by serialize.
+     * Data written without timestamps is stamped with the current time.
+     * @param data The serialized entries.
+     * @return The deserialized map.
+     * @throws IllegalArgumentException If the data has an invalid header.
+     */
+    public static ChunkDurabilityMap deserialize(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int count = readEntryCount(buffer, data.length);
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid durability data header");
+        }
+        int[] keys = new int[count];
+        char[] values = new char[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = buffer.getInt();
+            values[i] = buffer.getChar();
+        }
+        boolean stamped = buffer.remaining() >= (long) count * 4;
+        int now = currentStamp();
+        ChunkDurabilityMap map = new ChunkDurabilityMap(count);
+        for (int i = 0; i < count; i++) {
+            map.put(keys[i], values[i], stamped ? buffer.getInt() : now);
+        }
+        map.dirty = false;
+        return map;
+    }
+
+    /**
+     * Checks whether data starts with the magic number of the serialized format.
+     * @param data The data, at least its first 4 bytes.
+     * @return Whether the data is in the serialized format.
+     */
+    public static boolean hasMagic(byte[] data) {
+        return data.length >= 4 && ByteBuffer.wrap(data).getInt() == MAGIC;
+    }
+
+    /**
+     * Reads the header of serialized data.
+     * The entry count is checked against the length of the data,
+     * so corrupt data never causes huge allocations.
+     * @param buffer The buffer positioned at the start of the data.
+     * @param length The total length of the data.
+     * @return The entry count, or -1 if the header is invalid.
+     */
+    public static int readEntryCount(ByteBuffer buffer, long length) {
+        if (buffer.remaining() < HEADER_SIZE) return -1;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return -1;
+        int count = buffer.getInt();
+        if (count < 0 || count > (length - HEADER_SIZE) / ENTRY_SIZE) return -1;
+        return count;
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes a slot, shifting back the entries of its probe chain.
+     */
+    private void removeSlot(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = mix(keys[next]) & mask;
+            // move the entry into the gap if its home slot isn't between the gap and it
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                stamps[gap] = stamps[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        size--;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        char[] oldValues = values;
+        int[] oldStamps = stamps;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int slot = mix(oldKeys[i]) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            stamps[slot] = oldStamps[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new char[capacity];
+        stamps = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Gets the current time as an entry timestamp.
+     * @return Seconds since the timestamp epoch.
+     */
+    public static int currentStamp() {
+        return (int) (System.currentTimeMillis() / 1000L - STAMP_EPOCH);
+    }
+
+    /**
+     * Packs a block position into a chunk local key.
+     * @param x The block x coordinate.
+     * @param y The block y coordinate.
+     * @param z The block z coordinate.
+     * @return The packed position.
+     */
+    public static int packPosition(int x, int y, int z) {
+        return (y << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    public static int unpackX(int key) {
+        return key & 15;
+    }
+
+    public static int unpackY(int key) {
+        return key >> 8;
+    }
+
+    public static int unpackZ(int key) {
+        return (key >> 4) & 15;
+    }
+
+    /**
+     * Quantizes a relative durability into 16 bits.
+     * @param durability The relative durability, between 0 and 1 exclusive.
+     * @return The quantized durability.
+     */
+    public static int quantize(double durability) {
+        int value = (int) Math.round(durability * MAX_VALUE);
+        return Math.max(1, Math.min(MAX_VALUE - 1, value));
+    }
+
+    /**
+     * Converts a quantized durability back into a relative durability.
+     * @param value The quantized durability.
+     * @return The relative durability.
+     */
+    public static double dequantize(int value) {
+        return (double) value / MAX_VALUE;
+    }
+
+    /**
+     * Listener of changes to the number of entries in the map.
+     */
+    public interface SizeListener {
+        void onSizeChanged(int size);
+    }
+
+    /**
+     * Updater of the raw entries of the map.
+     */
+    public interface EntryUpdater {
+        int update(int position, int value, int stamp);
+    }
+}
@@ -0,0 +1,38 @@
+package me.matoosh.softclaims.durability;
+
+/**
+ * Immutable copy of the damaged blocks in a chunk.
+ * Safe to read from any thread.
+ */
+public class ChunkDurabilitySnapshot {
+
+    private final int[] positions;
+    private final char[] durabilities;
+
+    ChunkDurabilitySnapshot(int[] positions, char[] durabilities) {
+        this.positions = positions;
+        this.durabilities = durabilities;
+    }
+
+    /**
+     * Visits all damaged blocks in the snapshot.
+     * @param visitor The visitor.
+     */
+    public void forEach(DurabilityVisitor visitor) {
+        for (int i = 0; i < positions.length; i++) {
+            int position = positions[i];
+            visitor.visit(ChunkDurabilityMap.unpackX(position),
+                    ChunkDurabilityMap.unpackY(position),
+                    ChunkDurabilityMap.unpackZ(position),
+                    ChunkDurabilityMap.dequantize(durabilities[i]));
+        }
+    }
+
+    public int size() {
+        return positions.length;
+    }
+
+    public boolean isEmpty() {
+        return positions.length == 0;
+    }
+}
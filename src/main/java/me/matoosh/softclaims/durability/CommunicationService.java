@@ -1,20 +1,84 @@
 package me.matoosh.softclaims.durability;
 
+import me.matoosh.softclaims.util.LongLongHashMap;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.TextColor;
 import org.bukkit.entity.Player;
 
 public class CommunicationService {
+
+    private static final TextColor HIGHLIGHT_COLOR = TextColor.fromHexString("#f44e07");
+    private static final TextColor SEPARATOR_COLOR = TextColor.fromHexString("#bababa");
+    private static final TextColor BRACKET_COLOR = TextColor.fromHexString("#777777");
+
+    private static final Component SEPARATOR = Component.text(" | ", SEPARATOR_COLOR);
+
+    /**
+     * Rendered progress bars by durability percentage.
+     */
+    private static final Component[] PROGRESS_BARS = new Component[101];
+
+    static {
+        for (int percent = 0; percent <= 100; percent++) {
+            PROGRESS_BARS[percent] = renderProgressBar(percent);
+        }
+    }
+
+    /**
+     * Last action bar shown to each player by entity id,
+     * packed as the durability and the total durability.
+     */
+    private final LongLongHashMap lastShown = new LongLongHashMap();
+
+    /**
+     * Second at which the last action bar was shown to each player by entity id.
+     */
+    private final LongLongHashMap lastShownSecond = new LongLongHashMap();
+
     /**
      * Shows the current block durability to the player.
+     * An identical action bar isn't sent again within the same second.
+     * Has to be called from the main thread.
      * @param player
      * @param durability
      */
     public void showDurability(Player player, int durability, int totalDurability) {
-        StringBuilder progressBar = new StringBuilder();
+        // skip if the same bar was already shown this second
+        long shown = ((long) durability << 32) | (totalDurability & 0xFFFFFFFFL);
+        long second = System.currentTimeMillis() / 1000L;
+        int entityId = player.getEntityId();
+        if (lastShown.get(entityId, -1) == shown && lastShownSecond.get(entityId, -1) == second) {
+            return;
+        }
+        lastShown.put(entityId, shown);
+        lastShownSecond.put(entityId, second);
 
         // math
         int percent = (int)(((float) durability / (float) totalDurability) * 100f);
+        percent = Math.max(0, Math.min(100, percent));
+
+        // action bar
+        player.sendActionBar(Component.join(SEPARATOR,
+                Component.text("Durability: " + durability, HIGHLIGHT_COLOR),
+                PROGRESS_BARS[percent]));
+    }
+
+    /**
+     * Forgets the action bars shown to a player.
+     * @param player The player.
+     */
+    public void forgetPlayer(Player player) {
+        lastShown.remove(player.getEntityId());
+        lastShownSecond.remove(player.getEntityId());
+    }
+
+    /**
+     * Renders the progress bar of a durability percentage.
+     * @param percent The durability percentage, from 0 to 100.
+     * @return The progress bar component.
+     */
+    private static Component renderProgressBar(int percent) {
+        StringBuilder progressBar = new StringBuilder();
         int fullBars = percent / 10;
         int remainder = percent % 10;
 
@@ -38,29 +102,9 @@ public class CommunicationService {
             progressBar.append("  ");
         }
 
-        // action bar
-//        TextComponent durabilityComponent = new TextComponent("Durability: " + durability);
-//        durabilityComponent.setColor(ChatColor.of("#f44e07"));
-//        TextComponent separatorComponent = new TextComponent(" | " + durability);
-//        separatorComponent.setColor(ChatColor.of("#bababa"));
-//        TextComponent progressBarOpenerComponent = new TextComponent("[");
-//        progressBarOpenerComponent.setColor(ChatColor.of("#777777"));
-//        TextComponent progressBarCloserComponent = new TextComponent("]");
-//        progressBarCloserComponent.setColor(ChatColor.of("#777777"));
-//        TextComponent progressBarComponent = new TextComponent(progressBar.toString());
-//        progressBarComponent.setColor(ChatColor.of("#f44e07"));
-//
-//        player.spigot().sendMessage(ChatMessageType.ACTION_BAR, durabilityComponent, separatorComponent,
-//                progressBarOpenerComponent, progressBarComponent, progressBarCloserComponent);
-
-        player.sendActionBar(Component.join(
-                Component.text(" | ", TextColor.fromHexString("#bababa")),
-                Component.text("Durability: " + durability, TextColor.fromHexString("#f44e07")),
-                Component.join(Component.empty(),
-                        Component.text("[", TextColor.fromHexString("#777777")),
-                        Component.text(progressBar.toString(), TextColor.fromHexString("#f44e07")),
-                        Component.text("]", TextColor.fromHexString("#777777"))
-                )
-        ));
+        return Component.join(Component.empty(),
+                Component.text("[", BRACKET_COLOR),
+                Component.text(progressBar.toString(), HIGHLIGHT_COLOR),
+                Component.text("]", BRACKET_COLOR));
     }
 }
@@ -0,0 +1,285 @@
+package me.matoosh.softclaims.durability;
+
+import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.async.AsyncFiles;
+import me.matoosh.softclaims.util.LongLongHashMap;
+import org.bukkit.World;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the chunks which hold durability data,
+ * including chunks which aren't loaded.
+ * Lets callers visit only damaged chunks instead of every claim.
+ */
+public class DamagedChunkIndex {
+
+    private static final String INDEX_FILE = "index.idx";
+    private static final String CHUNK_FILE_SUFFIX = ".dat";
+
+    /**
+     * Magic number and version at the start of the index file ("SCDI").
+     */
+    private static final int INDEX_MAGIC = 0x53434449;
+    private static final int INDEX_VERSION = 1;
+    private static final int INDEX_HEADER_SIZE = 12;
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    /**
+     * Plugin reference.
+     */
+    private final SoftClaimsPlugin plugin;
+
+    /**
+     * Directory in which the durability data is stored.
+     */
+    private final Path dataDir;
+
+    /**
+     * Number of damaged blocks by chunk key, per world.
+     */
+    private final Map<UUID, LongLongHashMap> damagedChunks = new ConcurrentHashMap<>();
+
+    public DamagedChunkIndex(SoftClaimsPlugin plugin, Path dataDir) {
+        this.plugin = plugin;
+        this.dataDir = dataDir;
+    }
+
+    /**
+     * Updates the number of damaged blocks in a chunk.
+     * @param world The world of the chunk.
+     * @param chunkKey The key of the chunk.
+     * @param damagedBlocks The number of damaged blocks in the chunk.
+     */
+    public void update(World world, long chunkKey, int damagedBlocks) {
+        LongLongHashMap worldChunks = getWorldChunks(world);
+        synchronized (worldChunks) {
+            if (damagedBlocks > 0) {
+                worldChunks.put(chunkKey, damagedBlocks);
+            } else {
+                worldChunks.remove(chunkKey);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of damaged blocks in a chunk.
+     * @param world The world of the chunk.
+     * @param chunkX The x coordinate of the chunk.
+     * @param chunkZ The z coordinate of the chunk.
+     * @return The number of damaged blocks in the chunk.
+     */
+    public int getDamagedBlocks(World world, int chunkX, int chunkZ) {
+        LongLongHashMap worldChunks = getWorldChunks(world);
+        synchronized (worldChunks) {
+            return (int) worldChunks.get(DurabilityStorage.getChunkKey(chunkX, chunkZ), 0);
+        }
+    }
+
+    /**
+     * Checks whether a chunk holds any durability data.
+     * @param world The world of the chunk.
+     * @param chunkX The x coordinate of the chunk.
+     * @param chunkZ The z coordinate of the chunk.
+     * @return Whether the chunk has damaged blocks.
+     */
+    public boolean isDamaged(World world, int chunkX, int chunkZ) {
+        return getDamagedBlocks(world, chunkX, chunkZ) > 0;
+    }
+
+    /**
+     * Visits all damaged chunks in a world.
+     * Works on a copy, so the visitor may modify durabilities.
+     * @param world The world.
+     * @param visitor The visitor.
+     */
+    public void forEachDamagedChunk(World world, DamagedChunkVisitor visitor) {
+        LongLongHashMap worldChunks = getWorldChunks(world);
+        long[] entries;
+        synchronized (worldChunks) {
+            entries = new long[worldChunks.size() * 2];
+            int[] i = {0};
+            worldChunks.forEach((chunkKey, damagedBlocks) -> {
+                entries[i[0]++] = chunkKey;
+                entries[i[0]++] = damagedBlocks;
+            });
+        }
+        for (int i = 0; i < entries.length; i += 2) {
+            visitor.visit((int) entries[i], (int) (entries[i] >> 32), (int) entries[i + 1]);
+        }
+    }
+
+    /**
+     * Gets the number of damaged chunks in a world.
+     * @param world The world.
+     * @return The number of damaged chunks.
+     */
+    public int getDamagedChunkCount(World world) {
+        LongLongHashMap worldChunks = getWorldChunks(world);
+        synchronized (worldChunks) {
+            return worldChunks.size();
+        }
+    }
+
+    /**
+     * Loads the index of a world from disk.
+     * Rebuilt from the chunk files if there is no index file.
+     * Chunks indexed before loading take precedence.
+     * @param world The world.
+     */
+    public void load(World world) {
+        Path worldDir = dataDir.resolve(world.getName());
+        if (!Files.isDirectory(worldDir)) return;
+        LongLongHashMap loaded = new LongLongHashMap();
+        try {
+            Path indexFile = worldDir.resolve(INDEX_FILE);
+            if (!Files.exists(indexFile) || !readIndex(indexFile, loaded)) {
+                loaded.clear();
+                rebuild(worldDir, loaded);
+            }
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().warning("Couldn't load damaged chunk index of "
+                    + world.getName() + ": " + e.getMessage());
+            return;
+        }
+
+        LongLongHashMap worldChunks = getWorldChunks(world);
+        synchronized (worldChunks) {
+            loaded.forEach((chunkKey, damagedBlocks) -> {
+                if (!worldChunks.containsKey(chunkKey)) {
+                    worldChunks.put(chunkKey, damagedBlocks);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads an index file.
+     * @return Whether the file is a valid index.
+     */
+    private boolean readIndex(Path indexFile, LongLongHashMap index) throws IOException {
+        byte[] data = Files.readAllBytes(indexFile);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < INDEX_HEADER_SIZE
+                || buffer.getInt() != INDEX_MAGIC || buffer.getInt() != INDEX_VERSION) {
+            return false;
+        }
+        int count = buffer.getInt();
+        if (count < 0 || count > (data.length - INDEX_HEADER_SIZE) / INDEX_ENTRY_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            index.put(buffer.getLong(), buffer.getInt());
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the index from the chunk files of a world.
+     * Legacy files are counted by importing them, invalid files are moved aside.
+     */
+    private void rebuild(Path worldDir, LongLongHashMap index) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(worldDir, "*" + CHUNK_FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String[] coordinates = name.substring(0, name.length()
+                        - CHUNK_FILE_SUFFIX.length()).split("_");
+                if (coordinates.length != 2) continue;
+                int chunkX, chunkZ;
+                try {
+                    chunkX = Integer.parseInt(coordinates[0]);
+                    chunkZ = Integer.parseInt(coordinates[1]);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+
+                int damagedBlocks = countEntries(file);
+                if (damagedBlocks < 0) {
+                    plugin.getLogger().warning("Invalid durability data in "
+                            + file + ", moving it aside");
+                    DurabilityStorage.moveAside(file, DurabilityStorage.INVALID_DIR);
+                } else if (damagedBlocks > 0) {
+                    index.put(DurabilityStorage.getChunkKey(chunkX, chunkZ), damagedBlocks);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the entries of a chunk file from its header.
+     * @return The number of entries, or -1 if the file is invalid.
+     */
+    private int countEntries(Path file) throws IOException {
+        byte[] header = new byte[ChunkDurabilityMap.HEADER_SIZE];
+        int read = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while (read < header.length && (n = in.read(header, read, header.length - read)) > 0) {
+                read += n;
+            }
+        }
+        if (ChunkDurabilityMap.hasMagic(header)) {
+            return ChunkDurabilityMap.readEntryCount(
+                    ByteBuffer.wrap(header, 0, read), Files.size(file));
+        }
+
+        // legacy files are imported once their chunk loads
+        try {
+            return LegacyDurabilityImporter.importChunk(Files.readAllBytes(file)).size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Saves the index of a world to disk.
+     * @param world The world.
+     * @return Future completed once the index is written.
+     */
+    public CompletableFuture<Long> save(World world) {
+        LongLongHashMap worldChunks = getWorldChunks(world);
+        ByteBuffer buffer;
+        synchronized (worldChunks) {
+            buffer = ByteBuffer.allocate(INDEX_HEADER_SIZE + worldChunks.size() * INDEX_ENTRY_SIZE);
+            buffer.putInt(INDEX_MAGIC);
+            buffer.putInt(INDEX_VERSION);
+            buffer.putInt(worldChunks.size());
+            worldChunks.forEach((chunkKey, damagedBlocks) -> {
+                buffer.putLong(chunkKey);
+                buffer.putInt((int) damagedBlocks);
+            });
+        }
+        Path worldDir = dataDir.resolve(world.getName());
+        try {
+            Files.createDirectories(worldDir);
+        } catch (IOException e) {
+            CompletableFuture<Long> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return AsyncFiles.writeBytes(worldDir.resolve(INDEX_FILE), buffer.array(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private LongLongHashMap getWorldChunks(World world) {
+        return damagedChunks.computeIfAbsent(world.getUID(), (w) -> new LongLongHashMap());
+    }
+
+    /**
+     * Visitor of damaged chunks.
+     */
+    public interface DamagedChunkVisitor {
+        void visit(int chunkX, int chunkZ, int damagedBlocks);
+    }
+}
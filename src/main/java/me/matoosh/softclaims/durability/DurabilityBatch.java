@@ -0,0 +1,134 @@
+package me.matoosh.softclaims.durability;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of durability changes.
+ * Changes are grouped by chunk when applied, so every
+ * chunk's durability data is acquired only once per batch.
+ * Changes to the same chunk are applied in the order they were added.
+ */
+public class DurabilityBatch {
+
+    /**
+     * Outcome of a single change.
+     */
+    public enum Outcome {
+        /**
+         * The change wasn't applied, because the block has no
+         * durability or its chunk's data isn't available.
+         */
+        SKIPPED,
+        /**
+         * The block was damaged and still stands.
+         */
+        DAMAGED,
+        /**
+         * The block's durability dropped to zero.
+         */
+        DESTROYED,
+        /**
+         * The block's durability was set.
+         */
+        UPDATED,
+        /**
+         * The block's durability was reset to full.
+         */
+        CLEARED
+    }
+
+    private final List<Change> changes = new ArrayList<>();
+
+    /**
+     * Damages a block by an absolute amount of durability.
+     * @param block The block.
+     * @param damage The durability to take away.
+     * @return This batch.
+     */
+    public DurabilityBatch damage(Block block, double damage) {
+        changes.add(new Change(block, Change.DAMAGE, damage));
+        return this;
+    }
+
+    /**
+     * Sets the relative durability of a block.
+     * Values outside of the 0 - 1 range clear the durability.
+     * @param block The block.
+     * @param durability Durability between 0 and 1.
+     * @return This batch.
+     */
+    public DurabilityBatch set(Block block, double durability) {
+        changes.add(new Change(block, Change.SET, durability));
+        return this;
+    }
+
+    /**
+     * Clears the durability of a block.
+     * @param block The block.
+     * @return This batch.
+     */
+    public DurabilityBatch clear(Block block) {
+        return set(block, 1d);
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Gets the blocks whose changes had the given outcome.
+     * @param outcome The outcome.
+     * @return The blocks.
+     */
+    public List<Block> getBlocks(Outcome outcome) {
+        List<Block> blocks = new ArrayList<>();
+        for (Change change : changes) {
+            if (change.outcome == outcome) {
+                blocks.add(change.block);
+            }
+        }
+        return blocks;
+    }
+
+    List<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * A single durability change.
+     */
+    static class Change {
+        static final int SET = 0;
+        static final int DAMAGE = 1;
+
+        final Block block;
+        final World world;
+        final int chunkX;
+        final int chunkZ;
+        final int position;
+        final Material material;
+        final int type;
+        final double value;
+        Outcome outcome = Outcome.SKIPPED;
+
+        Change(Block block, int type, double value) {
+            this.block = block;
+            this.world = block.getWorld();
+            this.chunkX = block.getX() >> 4;
+            this.chunkZ = block.getZ() >> 4;
+            this.position = ChunkDurabilityMap.packPosition(block.getX(), block.getY(), block.getZ());
+            this.material = block.getType();
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
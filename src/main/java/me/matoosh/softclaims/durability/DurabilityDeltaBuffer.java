@@ -0,0 +1,126 @@
+package me.matoosh.softclaims.durability;
+
+import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.util.LongLongHashMap;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-behind buffer of block damage.
+ * Damage is accumulated per block and merged into the durability
+ * storage in one batch per tick, instead of reading and writing
+ * the durability of a block on every change.
+ * Readers have to hold the buffer's lock while combining the stored
+ * durability with the pending damage, so flushed damage is never
+ * missed or counted twice.
+ */
+public class DurabilityDeltaBuffer {
+
+    private final SoftClaimsPlugin plugin;
+
+    /**
+     * Pending damage by packed block position, per world.
+     */
+    private final Map<World, LongLongHashMap> pendingDamage = new HashMap<>();
+
+    public DurabilityDeltaBuffer(SoftClaimsPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Starts flushing the buffer every tick.
+     */
+    public void initialize() {
+        Bukkit.getScheduler().runTaskTimer(plugin, this::flush, 1, 1);
+    }
+
+    /**
+     * Adds damage to a block.
+     * @param block The block.
+     * @param damage The durability to take away.
+     */
+    public synchronized void add(Block block, int damage) {
+        if (damage == 0) return;
+        LongLongHashMap worldDamage = pendingDamage
+                .computeIfAbsent(block.getWorld(), (w) -> new LongLongHashMap());
+        long key = packPosition(block.getX(), block.getY(), block.getZ());
+        worldDamage.put(key, worldDamage.get(key, 0) + damage);
+    }
+
+    /**
+     * Gets the damage of a block which wasn't flushed yet.
+     * @param block The block.
+     * @return The pending damage.
+     */
+    public synchronized int get(Block block) {
+        LongLongHashMap worldDamage = pendingDamage.get(block.getWorld());
+        if (worldDamage == null) return 0;
+        return (int) worldDamage.get(packPosition(block.getX(), block.getY(), block.getZ()), 0);
+    }
+
+    /**
+     * Drops the damage of a block which wasn't flushed yet.
+     * @param block The block.
+     */
+    public synchronized void remove(Block block) {
+        LongLongHashMap worldDamage = pendingDamage.get(block.getWorld());
+        if (worldDamage == null) return;
+        worldDamage.remove(packPosition(block.getX(), block.getY(), block.getZ()));
+    }
+
+    /**
+     * Merges all pending damage into the durability storage, grouped by chunk.
+     * Damage of blocks whose durability data is still loading is kept for the next flush,
+     * damage of blocks in unloaded chunks is dropped.
+     * Has to be called from the main thread.
+     */
+    public synchronized void flush() {
+        if (pendingDamage.isEmpty()) return;
+
+        // collect damage into a batch
+        DurabilityBatch batch = new DurabilityBatch();
+        for (Map.Entry<World, LongLongHashMap> worldDamage : pendingDamage.entrySet()) {
+            World world = worldDamage.getKey();
+            worldDamage.getValue().forEach((position, damage) -> {
+                int x = unpackX(position);
+                int z = unpackZ(position);
+                // drop damage of unloaded chunks instead of loading them, like skipped changes
+                if (!world.isChunkLoaded(x >> 4, z >> 4)) return;
+                batch.damage(world.getBlockAt(x, unpackY(position), z), damage);
+            });
+        }
+        pendingDamage.clear();
+        plugin.getBlockDurabilityService().applyBatch(batch);
+
+        // keep damage which couldn't be applied yet
+        List<DurabilityBatch.Change> changes = batch.getChanges();
+        for (DurabilityBatch.Change change : changes) {
+            if (change.outcome == DurabilityBatch.Outcome.SKIPPED
+                    && change.world.isChunkLoaded(change.chunkX, change.chunkZ)
+                    && plugin.getSoftClaimsConfig().isTracked(change.material)) {
+                add(change.block, (int) change.value);
+            }
+        }
+    }
+
+    private static long packPosition(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    private static int unpackX(long key) {
+        return (int) (key >> 38);
+    }
+
+    private static int unpackY(long key) {
+        return (int) (key << 52 >> 52);
+    }
+
+    private static int unpackZ(long key) {
+        return (int) (key << 26 >> 38);
+    }
+}
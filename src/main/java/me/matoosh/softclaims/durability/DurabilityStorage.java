@@ -0,0 +1,363 @@
+package me.matoosh.softclaims.durability;
+
+import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.async.AsyncFiles;
+import me.matoosh.softclaims.exception.ChunkAlreadyLoadedException;
+import me.matoosh.softclaims.exception.ChunkBusyException;
+import me.matoosh.softclaims.exception.ChunkNotLoadedException;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores durability data of loaded chunks and
+ * persists it in a packed binary format, one file per chunk.
+ */
+public class DurabilityStorage implements Listener {
+
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    /**
+     * Directories within a world's data, in which
+     * imported legacy files and unreadable files are kept.
+     */
+    static final String LEGACY_DIR = "legacy";
+    static final String INVALID_DIR = "invalid";
+
+    /**
+     * Plugin reference.
+     */
+    private final SoftClaimsPlugin plugin;
+
+    /**
+     * Directory in which the durability data is stored.
+     */
+    private final Path dataDir;
+
+    /**
+     * Durability data of loaded chunks by world and chunk key.
+     */
+    private final Map<UUID, Map<Long, ChunkDurabilityMap>> loadedChunks = new ConcurrentHashMap<>();
+
+    /**
+     * Chunks whose data is currently being loaded, by world.
+     */
+    private final Map<UUID, Set<Long>> loadingChunks = new ConcurrentHashMap<>();
+
+    /**
+     * Pending file operations by chunk file.
+     * Loads wait for these so they never read stale data.
+     */
+    private final Map<Path, CompletableFuture<Void>> pendingWrites = new ConcurrentHashMap<>();
+
+    /**
+     * Index of the chunks with durability data.
+     */
+    private final DamagedChunkIndex damagedChunkIndex;
+
+    public DurabilityStorage(SoftClaimsPlugin plugin, Path dataDir) {
+        this.plugin = plugin;
+        this.dataDir = dataDir;
+        this.damagedChunkIndex = new DamagedChunkIndex(plugin, dataDir);
+        Bukkit.getPluginManager().registerEvents(this, plugin);
+    }
+
+    /**
+     * Gets the durability data of a loaded chunk.
+     * @param world The world.
+     * @param chunkX The x coordinate of the chunk.
+     * @param chunkZ The z coordinate of the chunk.
+     * @return The durability data of the chunk.
+     */
+    public ChunkDurabilityMap getChunk(World world, int chunkX, int chunkZ)
+            throws ChunkBusyException, ChunkNotLoadedException {
+        long key = getChunkKey(chunkX, chunkZ);
+        Map<Long, ChunkDurabilityMap> worldChunks = loadedChunks.get(world.getUID());
+        ChunkDurabilityMap chunkData = worldChunks == null ? null : worldChunks.get(key);
+        if (chunkData != null) {
+            return chunkData;
+        }
+        Set<Long> loading = loadingChunks.get(world.getUID());
+        if (loading != null && loading.contains(key)) {
+            throw new ChunkBusyException();
+        }
+        throw new ChunkNotLoadedException();
+    }
+
+    /**
+     * Gets the durability data of a loaded chunk.
+     * @param chunk The chunk.
+     * @return The durability data of the chunk.
+     */
+    public ChunkDurabilityMap getChunk(Chunk chunk)
+            throws ChunkBusyException, ChunkNotLoadedException {
+        return getChunk(chunk.getWorld(), chunk.getX(), chunk.getZ());
+    }
+
+    /**
+     * Loads durability data of a chunk from disk.
+     * @param chunk The chunk to load.
+     * @return Future completed once the data is loaded.
+     */
+    public CompletableFuture<Void> loadChunk(Chunk chunk) throws ChunkAlreadyLoadedException {
+        World world = chunk.getWorld();
+        UUID worldId = world.getUID();
+        long key = getChunkKey(chunk.getX(), chunk.getZ());
+        Map<Long, ChunkDurabilityMap> worldChunks = loadedChunks
+                .computeIfAbsent(worldId, (w) -> new ConcurrentHashMap<>());
+        Set<Long> loading = loadingChunks
+                .computeIfAbsent(worldId, (w) -> ConcurrentHashMap.newKeySet());
+        if (worldChunks.containsKey(key) || !loading.add(key)) {
+            throw new ChunkAlreadyLoadedException();
+        }
+
+        // read after any pending writes of the chunk
+        Path file = getChunkFile(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        CompletableFuture<Void> pending = pendingWrites
+                .getOrDefault(file, CompletableFuture.completedFuture(null));
+        return pending.exceptionally((e) -> null).thenCompose((v) -> {
+            if (!Files.exists(file)) {
+                return CompletableFuture.completedFuture(new ChunkDurabilityMap());
+            }
+            return AsyncFiles.readAllBytes(file, READ_BUFFER_SIZE, StandardOpenOption.READ)
+                    .thenApply((data) -> readChunkFile(file, data));
+        }).handle((chunkData, e) -> {
+            if (e != null) {
+                plugin.getLogger().warning("Couldn't load durability data from "
+                        + file + ": " + e.getMessage());
+                chunkData = new ChunkDurabilityMap();
+            }
+            // skip chunks unloaded while their data was being read
+            if (loading.remove(key)) {
+                ChunkDurabilityMap loadedData = chunkData;
+                loadedData.setSizeListener((size) -> damagedChunkIndex.update(world, key, size));
+                damagedChunkIndex.update(world, key, loadedData.size());
+                worldChunks.put(key, loadedData);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Saves durability data of a chunk to disk.
+     * @param chunk The chunk to persist.
+     * @param unload Whether the data should be unloaded from memory.
+     * @return Future completed once the data is written.
+     */
+    public CompletableFuture<Void> persistChunk(Chunk chunk, boolean unload)
+            throws ChunkNotLoadedException {
+        UUID worldId = chunk.getWorld().getUID();
+        long key = getChunkKey(chunk.getX(), chunk.getZ());
+        Map<Long, ChunkDurabilityMap> worldChunks = loadedChunks.get(worldId);
+        ChunkDurabilityMap chunkData = worldChunks == null ? null : worldChunks.get(key);
+        if (chunkData == null) {
+            Set<Long> loading = loadingChunks.get(worldId);
+            if (unload && loading != null) {
+                loading.remove(key);
+            }
+            throw new ChunkNotLoadedException();
+        }
+        if (unload) {
+            worldChunks.remove(key);
+        }
+
+        // snapshot data, with regeneration written into the entries
+        byte[] data;
+        synchronized (chunkData) {
+            if (!chunkData.isDirty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            plugin.getBlockDurabilityService().regenerate(chunk, chunkData);
+            data = chunkData.isEmpty() ? null : chunkData.serialize();
+            chunkData.setDirty(false);
+        }
+
+        return queueWrite(getChunkFile(chunk.getWorld(), chunk.getX(), chunk.getZ()), data);
+    }
+
+    /**
+     * Clears the durability data of a chunk, whether it's loaded or not.
+     * The data of chunks which aren't loaded is deleted from disk without loading them.
+     * @param world The world of the chunk.
+     * @param chunkX The x coordinate of the chunk.
+     * @param chunkZ The z coordinate of the chunk.
+     * @return Future completed once the data is cleared.
+     */
+    public CompletableFuture<Void> clearChunk(World world, int chunkX, int chunkZ) {
+        long key = getChunkKey(chunkX, chunkZ);
+        Map<Long, ChunkDurabilityMap> worldChunks = loadedChunks.get(world.getUID());
+        ChunkDurabilityMap chunkData = worldChunks == null ? null : worldChunks.get(key);
+        if (chunkData != null) {
+            chunkData.clear();
+            return CompletableFuture.completedFuture(null);
+        }
+        damagedChunkIndex.update(world, key, 0);
+        return queueWrite(getChunkFile(world, chunkX, chunkZ), null);
+    }
+
+    /**
+     * Saves durability data of all loaded chunks in a world.
+     * @param world The world.
+     * @return Future completed once the data is written.
+     */
+    public CompletableFuture<Void> persistWorld(World world) {
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (Chunk chunk : world.getLoadedChunks()) {
+            try {
+                tasks.add(persistChunk(chunk, false));
+            } catch (ChunkNotLoadedException ignored) {}
+        }
+        tasks.add(damagedChunkIndex.save(world).thenApply((position) -> null));
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Gets the index of the chunks with durability data.
+     * @return The damaged chunk index.
+     */
+    public DamagedChunkIndex getDamagedChunkIndex() {
+        return damagedChunkIndex;
+    }
+
+    /**
+     * Reads the contents of a chunk file.
+     * Files of the legacy backend are imported and moved aside,
+     * unreadable files are moved aside and replaced with empty data.
+     */
+    private ChunkDurabilityMap readChunkFile(Path file, byte[] data) {
+        try {
+            if (ChunkDurabilityMap.hasMagic(data)) {
+                return ChunkDurabilityMap.deserialize(data);
+            }
+            ChunkDurabilityMap chunkData = LegacyDurabilityImporter.importChunk(data);
+            moveAside(file, LEGACY_DIR);
+            return chunkData;
+        } catch (IOException | IllegalArgumentException | BufferUnderflowException e) {
+            plugin.getLogger().warning("Invalid durability data in "
+                    + file + ", moving it aside: " + e.getMessage());
+            try {
+                moveAside(file, INVALID_DIR);
+            } catch (IOException moveException) {
+                moveException.printStackTrace();
+            }
+            return new ChunkDurabilityMap();
+        }
+    }
+
+    /**
+     * Moves a chunk file into a subdirectory of its world's data.
+     * @param file The chunk file.
+     * @param directory The name of the subdirectory.
+     */
+    static void moveAside(Path file, String directory) throws IOException {
+        Path target = file.getParent().resolve(directory);
+        Files.createDirectories(target);
+        Files.move(file, target.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes the chunk data to a file after any pending writes of the file.
+     * @param file The chunk file.
+     * @param data The data, or null to delete the file.
+     * @return Future completed once the data is written.
+     */
+    private CompletableFuture<Void> queueWrite(Path file, byte[] data) {
+        CompletableFuture<Void> write = pendingWrites.compute(file, (f, pending) ->
+                (pending == null ? CompletableFuture.<Void>completedFuture(null) : pending)
+                .exceptionally((e) -> null)
+                .thenCompose((v) -> writeChunkFile(file, data)));
+        write.whenComplete((v, e) -> {
+            pendingWrites.remove(file, write);
+            if (e != null) {
+                plugin.getLogger().warning("Couldn't save durability data to "
+                        + file + ": " + e.getMessage());
+            }
+        });
+        return write;
+    }
+
+    /**
+     * Writes the chunk data to a file, or deletes the file if there is no data.
+     */
+    private CompletableFuture<Void> writeChunkFile(Path file, byte[] data) {
+        if (data == null) {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        try {
+            Files.createDirectories(file.getParent());
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return AsyncFiles.writeBytes(file, data, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                .thenApply((position) -> null);
+    }
+
+    private Path getChunkFile(World world, int chunkX, int chunkZ) {
+        return dataDir.resolve(world.getName()).resolve(chunkX + "_" + chunkZ + ".dat");
+    }
+
+    /**
+     * Gets the key of a chunk, unique within its world.
+     * @param chunkX The x coordinate of the chunk.
+     * @param chunkZ The z coordinate of the chunk.
+     * @return The chunk key.
+     */
+    public static long getChunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkZ << 32) | (chunkX & 0xFFFFFFFFL);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        try {
+            loadChunk(event.getChunk());
+        } catch (ChunkAlreadyLoadedException ignored) {}
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        try {
+            persistChunk(event.getChunk(), true);
+        } catch (ChunkNotLoadedException ignored) {}
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        damagedChunkIndex.load(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldSave(WorldSaveEvent event) {
+        persistWorld(event.getWorld());
+    }
+}
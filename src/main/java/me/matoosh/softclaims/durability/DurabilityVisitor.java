@@ -0,0 +1,15 @@
+package me.matoosh.softclaims.durability;
+
+/**
+ * Visitor of the damaged blocks in a chunk.
+ */
+public interface DurabilityVisitor {
+    /**
+     * Called for every damaged block.
+     * @param x The x coordinate of the block within its chunk.
+     * @param y The y coordinate of the block.
+     * @param z The z coordinate of the block within its chunk.
+     * @param durability The relative durability of the block.
+     */
+    void visit(int x, int y, int z, double durability);
+}
@@ -0,0 +1,58 @@
+package me.matoosh.softclaims.durability;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Imports chunk files written by the block-metadata backend
+ * used before the packed format. These hold a JSON object of
+ * chunk local "x,y,z" positions to relative durabilities.
+ */
+public class LegacyDurabilityImporter {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Imports the durabilities of a legacy chunk file.
+     * The returned map is dirty, so it's written in the packed format on the next save.
+     * @param data The contents of the file.
+     * @return The imported durabilities.
+     * @throws IOException If the data isn't a legacy chunk file.
+     */
+    public static ChunkDurabilityMap importChunk(byte[] data) throws IOException {
+        JsonNode root = MAPPER.readTree(data);
+        if (root == null || !root.isObject()) {
+            throw new IOException("Not a legacy durability file");
+        }
+
+        ChunkDurabilityMap chunkData = new ChunkDurabilityMap(root.size());
+        Iterator<Map.Entry<String, JsonNode>> entries = root.fields();
+        while (entries.hasNext()) {
+            Map.Entry<String, JsonNode> entry = entries.next();
+            String[] position = entry.getKey().split(",");
+            if (position.length != 3 || !entry.getValue().isNumber()) {
+                throw new IOException("Invalid legacy durability entry: " + entry.getKey());
+            }
+            int x, y, z;
+            try {
+                x = Integer.parseInt(position[0].trim());
+                y = Integer.parseInt(position[1].trim());
+                z = Integer.parseInt(position[2].trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid legacy durability position: " + entry.getKey());
+            }
+
+            // full or no durability wasn't stored by the old backend either
+            double durability = entry.getValue().asDouble();
+            if (!(durability > 0 && durability < 1)) continue;
+            chunkData.put(ChunkDurabilityMap.packPosition(x, y, z),
+                    ChunkDurabilityMap.quantize(durability));
+        }
+        chunkData.setDirty(true);
+        return chunkData;
+    }
+}
@@ -0,0 +1,96 @@
+package me.matoosh.softclaims.durability;
+
+import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.async.AsyncFileWriter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Append-only log of the repair charges of factions.
+ * Every billing cycle of a faction is recorded as one CSV line.
+ * Has to be used from the main thread.
+ */
+public class RepairLedger {
+
+    private static final String HEADER = "time,faction,chunks,blocks,balance,charged\n";
+
+    /**
+     * Plugin reference.
+     */
+    private final SoftClaimsPlugin plugin;
+
+    /**
+     * The ledger file.
+     */
+    private final Path file;
+
+    /**
+     * Writer appending to the ledger file, null if it isn't open.
+     */
+    private AsyncFileWriter writer;
+
+    public RepairLedger(SoftClaimsPlugin plugin, Path file) {
+        this.plugin = plugin;
+        this.file = file;
+    }
+
+    /**
+     * Opens the ledger file for appending.
+     */
+    public void open() {
+        try {
+            Files.createDirectories(file.getParent());
+            boolean exists = Files.exists(file);
+            writer = new AsyncFileWriter(file, exists ? Files.size(file) : 0,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (!exists) {
+                write(HEADER);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("Couldn't open repair ledger "
+                    + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records a repair charge of a faction.
+     * @param factionId The id of the faction.
+     * @param chunks The number of chunks paid for.
+     * @param blocks The number of blocks paid for.
+     * @param balance The balance of the faction before the charge.
+     * @param charged The charged amount.
+     */
+    public void record(long factionId, int chunks, int blocks, double balance, double charged) {
+        write(String.format(Locale.ROOT, "%d,%d,%d,%d,%.2f,%.2f\n",
+                System.currentTimeMillis(), factionId, chunks, blocks, balance, charged));
+    }
+
+    /**
+     * Waits for all pending lines to be written and closes the ledger file.
+     */
+    public void close() {
+        if (writer == null) return;
+        try {
+            writer.close();
+            writer.getPosition().get();
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        writer = null;
+    }
+
+    private void write(String line) {
+        if (writer == null) return;
+        writer.write(line.getBytes(StandardCharsets.UTF_8)).exceptionally((e) -> {
+            plugin.getLogger().warning("Couldn't write to repair ledger "
+                    + file + ": " + e.getMessage());
+            return null;
+        });
+    }
+}
@@ -0,0 +1,189 @@
+package me.matoosh.softclaims.events;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.BlockPosition;
+import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.util.LongLongHashMap;
+import org.bukkit.Bukkit;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Shows the crack animations of blocks being dug.
+ * All diggers of a block share one animation stream, and packets are only
+ * sent to viewers whose last received stage differs from the block's stage.
+ * Viewers are looked up every tick, so players walking up see the animation too.
+ * Has to be used from the main thread.
+ */
+public class BlockBreakAnimator {
+
+    /**
+     * Distance within which players see the animations.
+     */
+    private static final int VIEW_DISTANCE = 20;
+
+    /**
+     * Stage of viewers which haven't received any stage yet.
+     */
+    private static final int NOT_SENT = -2;
+
+    private final SoftClaimsPlugin plugin;
+
+    /**
+     * Animations of the blocks being dug.
+     */
+    private final Map<Block, BlockAnimation> animations = new HashMap<>();
+
+    public BlockBreakAnimator(SoftClaimsPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Starts refreshing the viewers of the animations every tick.
+     */
+    public void initialize() {
+        Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1, 1);
+    }
+
+    /**
+     * Updates the animation of the block dug in a session.
+     * @param digProgress The session.
+     */
+    public void update(DiggersHandler.DigProgress digProgress) {
+        BlockAnimation animation = animations.computeIfAbsent(digProgress.getBlock(),
+                (b) -> new BlockAnimation(b, digProgress.getPosition(),
+                        digProgress.getPlayer().getEntityId() + 1));
+        animation.stages.put(digProgress, digProgress.getAnimationProgress());
+        animation.refresh();
+    }
+
+    /**
+     * Removes a session from the animation of its block.
+     * The animation is cleared once no session digs the block.
+     * @param digProgress The session.
+     */
+    public void remove(DiggersHandler.DigProgress digProgress) {
+        BlockAnimation animation = animations.get(digProgress.getBlock());
+        if (animation == null || animation.stages.remove(digProgress) == null) return;
+        if (animation.stages.isEmpty()) {
+            animations.remove(digProgress.getBlock());
+            animation.clear();
+        } else {
+            animation.refresh();
+        }
+    }
+
+    /**
+     * Forgets the stages sent to a player.
+     * @param player The player.
+     */
+    public void forgetPlayer(Player player) {
+        for (BlockAnimation animation : animations.values()) {
+            animation.viewerStages.remove(player.getEntityId());
+        }
+    }
+
+    /**
+     * Called every tick.
+     * Sends the animations to players which came into view since the last swing.
+     */
+    private void tick() {
+        for (BlockAnimation animation : animations.values()) {
+            animation.refresh();
+        }
+    }
+
+    /**
+     * Sends a crack stage of a block to a player.
+     * @param player The player.
+     * @param streamId The id of the animation stream.
+     * @param position The position of the block.
+     * @param stage The stage from 0 to 9, or -1 to clear the animation.
+     */
+    private void sendStage(Player player, int streamId, BlockPosition position, int stage) {
+        PacketContainer packetContainer = new PacketContainer(PacketType.Play.Server.BLOCK_BREAK_ANIMATION);
+        // set stream id
+        packetContainer.getIntegers().write(0, streamId);
+        // set block position
+        packetContainer.getBlockPositionModifier().write(0, position);
+        // set progress
+        packetContainer.getIntegers().write(1, stage);
+
+        try {
+            plugin.getProtocolManager().sendServerPacket(player, packetContainer);
+        } catch (InvocationTargetException e) {
+            plugin.getLogger().log(Level.WARNING, "Couldn't send a block break animation", e);
+        }
+    }
+
+    /**
+     * Animation of a single block.
+     */
+    private class BlockAnimation {
+        private final Block block;
+        private final BlockPosition position;
+        private final int streamId;
+
+        /**
+         * Stage of the block in each session digging it.
+         */
+        private final Map<DiggersHandler.DigProgress, Integer> stages = new HashMap<>();
+
+        /**
+         * Last stage sent to each viewer, by entity id.
+         */
+        private final LongLongHashMap viewerStages = new LongLongHashMap();
+
+        /**
+         * Tick and stage of the last refresh.
+         */
+        private int lastRefreshTick = -1;
+        private int lastStage = -1;
+
+        private BlockAnimation(Block block, BlockPosition position, int streamId) {
+            this.block = block;
+            this.position = position;
+            this.streamId = streamId;
+        }
+
+        /**
+         * Sends the current stage to viewers which haven't received it yet.
+         * Viewers are looked up at most once per tick unless the stage changes.
+         */
+        private void refresh() {
+            int stage = -1;
+            for (int sessionStage : stages.values()) {
+                stage = Math.max(stage, sessionStage);
+            }
+            int tick = Bukkit.getCurrentTick();
+            if (tick == lastRefreshTick && stage == lastStage) return;
+            lastRefreshTick = tick;
+            lastStage = stage;
+
+            for (Player viewer : block.getLocation().getNearbyPlayers(VIEW_DISTANCE)) {
+                if (viewerStages.get(viewer.getEntityId(), NOT_SENT) != stage) {
+                    viewerStages.put(viewer.getEntityId(), stage);
+                    sendStage(viewer, streamId, position, stage);
+                }
+            }
+        }
+
+        /**
+         * Clears the animation for all viewers in the world which received it.
+         */
+        private void clear() {
+            if (viewerStages.isEmpty()) return;
+            for (Player viewer : block.getWorld().getPlayers()) {
+                if (viewerStages.get(viewer.getEntityId(), NOT_SENT) >= 0) {
+                    sendStage(viewer, streamId, position, -1);
+                }
+            }
+        }
+    }
+}
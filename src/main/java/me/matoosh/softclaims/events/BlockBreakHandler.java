@@ -2,10 +2,11 @@ package me.matoosh.softclaims.events;
 
 import com.comphenix.protocol.wrappers.BlockPosition;
 import com.destroystokyo.paper.event.block.BlockDestroyEvent;
-import me.matoosh.blockmetadata.exception.ChunkBusyException;
-import me.matoosh.blockmetadata.exception.ChunkNotLoadedException;
 import me.matoosh.softclaims.SoftClaimsPlugin;
 import me.matoosh.softclaims.durability.BlockDurabilityService;
+import me.matoosh.softclaims.durability.DurabilityBatch;
+import me.matoosh.softclaims.exception.ChunkBusyException;
+import me.matoosh.softclaims.exception.ChunkNotLoadedException;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
@@ -78,6 +79,8 @@ public class BlockBreakHandler implements Listener {
     @EventHandler
     public void onBlockDestroy(BlockDestroyEvent event)
             throws ChunkBusyException, ChunkNotLoadedException {
+        if (isWorldDisabled(event.getBlock())) return;
+
         // block durable blocks from getting destroyed by environment
         plugin.getBlockDurabilityService().clearDurability(event.getBlock());
     }
@@ -94,6 +97,8 @@ public class BlockBreakHandler implements Listener {
 
     @EventHandler
     public void onBlockBurn(BlockBurnEvent event) throws ChunkBusyException, ChunkNotLoadedException {
+        if (isWorldDisabled(event.getBlock())) return;
+
         // clear durability
         plugin.getBlockDurabilityService()
                 .clearDurability(event.getBlock());
@@ -101,6 +106,8 @@ public class BlockBreakHandler implements Listener {
 
     @EventHandler
     public void onBlockFade(BlockFadeEvent event) throws ChunkBusyException, ChunkNotLoadedException {
+        if (isWorldDisabled(event.getBlock())) return;
+
         // clear durability
         plugin.getBlockDurabilityService()
                 .clearDurability(event.getBlock());
@@ -109,33 +116,52 @@ public class BlockBreakHandler implements Listener {
     @EventHandler
     public void onBlockPistonExtend(BlockPistonExtendEvent event)
             throws ChunkBusyException, ChunkNotLoadedException {
+        if (isWorldDisabled(event.getBlock())) return;
         onBlocksMoveByPiston(event.getBlocks(), event.getDirection());
     }
 
     @EventHandler
     public void onBlockPistonRetract(BlockPistonRetractEvent event)
             throws ChunkBusyException, ChunkNotLoadedException {
+        if (isWorldDisabled(event.getBlock())) return;
         onBlocksMoveByPiston(event.getBlocks(), event.getDirection());
     }
 
     private void onBlocksMoveByPiston(List<Block> blocks, BlockFace direction)
             throws ChunkBusyException, ChunkNotLoadedException {
-        for (Block origin : blocks) {
-            // get block durability
-            double durability = plugin.getBlockDurabilityService()
-                    .getDurabilityRelative(origin);
-
-            // skip if durability 0
-            if (durability == 0) {
-                continue;
-            }
+        // read all durabilities before moving any of them
+        double[] durabilities = new double[blocks.size()];
+        boolean anyDurable = false;
+        for (int i = 0; i < durabilities.length; i++) {
+            durabilities[i] = plugin.getBlockDurabilityService()
+                    .getDurabilityRelative(blocks.get(i));
+            anyDurable |= durabilities[i] != 0;
+        }
+        if (!anyDurable) return;
 
-            // move durability in direction of the piston extend
-            Block resulting = origin.getRelative(direction);
-            plugin.getBlockDurabilityService().setDurabilityRelative(resulting, durability);
+        // clear durability in origin blocks
+        DurabilityBatch batch = new DurabilityBatch();
+        for (int i = 0; i < durabilities.length; i++) {
+            if (durabilities[i] != 0) {
+                batch.clear(blocks.get(i));
+            }
+        }
 
-            // clear durability in origin block
-            plugin.getBlockDurabilityService().clearDurability(origin);
+        // move durability in direction of the piston extend
+        for (int i = 0; i < durabilities.length; i++) {
+            if (durabilities[i] != 0) {
+                batch.set(blocks.get(i).getRelative(direction), durabilities[i]);
+            }
         }
+        plugin.getBlockDurabilityService().applyBatch(batch);
+    }
+
+    /**
+     * Checks whether the plugin is disabled in the world of a block.
+     * @param block The block.
+     * @return Whether the plugin is disabled for the block.
+     */
+    private boolean isWorldDisabled(Block block) {
+        return plugin.getSoftClaimsConfig().isWorldDisabled(block.getWorld());
     }
 }
@@ -0,0 +1,135 @@
+package me.matoosh.softclaims.events;
+
+import me.matoosh.softclaims.SoftClaimsPlugin;
+import org.bukkit.Bukkit;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+/**
+ * Advances all active dig sessions from a single repeating task.
+ * Every session swings once per swing interval, on its own phase
+ * counted from the tick it started on.
+ * Stopped sessions are dropped on the next tick.
+ */
+public class DigEngine {
+
+    /**
+     * Number of ticks between swings of a session.
+     */
+    public static final int SWING_INTERVAL = 20;
+
+    private final SoftClaimsPlugin plugin;
+
+    /**
+     * Called on every swing of a session.
+     */
+    private final SessionHandler swingHandler;
+
+    /**
+     * Called once a stopped session is dropped.
+     */
+    private final SessionHandler stopHandler;
+
+    /**
+     * Sessions started since the last tick.
+     * Sessions can be started from any thread.
+     */
+    private final Queue<DiggersHandler.DigProgress> startedSessions = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Active sessions, only accessed from the main thread.
+     */
+    private DiggersHandler.DigProgress[] sessions = new DiggersHandler.DigProgress[16];
+    private int sessionCount = 0;
+
+    /**
+     * Ticks since the engine started.
+     */
+    private long currentTick = 0;
+
+    public DigEngine(SoftClaimsPlugin plugin, SessionHandler swingHandler,
+                     SessionHandler stopHandler) {
+        this.plugin = plugin;
+        this.swingHandler = swingHandler;
+        this.stopHandler = stopHandler;
+    }
+
+    /**
+     * Starts ticking the engine.
+     */
+    public void initialize() {
+        Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1, 1);
+    }
+
+    /**
+     * Adds a session to the engine.
+     * Its first swing happens a swing interval after the next tick.
+     * Stopped sessions are dropped by the engine on its next tick.
+     * @param digProgress The session.
+     */
+    public void add(DiggersHandler.DigProgress digProgress) {
+        startedSessions.add(digProgress);
+    }
+
+    /**
+     * Called every tick.
+     * Swings the sessions whose phase is due in a single pass,
+     * compacting stopped sessions out of the array.
+     */
+    private void tick() {
+        currentTick++;
+
+        // add started sessions
+        DiggersHandler.DigProgress started;
+        while ((started = startedSessions.poll()) != null) {
+            if (sessionCount == sessions.length) {
+                sessions = Arrays.copyOf(sessions, sessionCount << 1);
+            }
+            started.setNextSwingTick(currentTick + SWING_INTERVAL);
+            sessions[sessionCount++] = started;
+        }
+
+        // swing due sessions
+        int kept = 0;
+        for (int i = 0; i < sessionCount; i++) {
+            DiggersHandler.DigProgress session = sessions[i];
+            if (!session.isStopped() && session.getNextSwingTick() <= currentTick) {
+                session.setNextSwingTick(session.getNextSwingTick() + SWING_INTERVAL);
+                handle(swingHandler, session);
+            }
+            if (!session.isStopped()) {
+                sessions[kept++] = session;
+            } else {
+                handle(stopHandler, session);
+            }
+        }
+        Arrays.fill(sessions, kept, sessionCount, null);
+        sessionCount = kept;
+    }
+
+    private void handle(SessionHandler handler, DiggersHandler.DigProgress session) {
+        try {
+            handler.handle(session);
+        } catch (RuntimeException e) {
+            plugin.getLogger().log(Level.WARNING, "Couldn't handle a dig session", e);
+        }
+    }
+
+    /**
+     * Gets the number of active sessions.
+     * @return The number of sessions.
+     */
+    public int getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * Handler of session events, called from the main thread.
+     */
+    public interface SessionHandler {
+        void handle(DiggersHandler.DigProgress digProgress);
+    }
+}
@@ -8,14 +8,14 @@ import com.comphenix.protocol.events.PacketListener;
 import com.comphenix.protocol.injector.GamePhase;
 import com.comphenix.protocol.wrappers.BlockPosition;
 import com.comphenix.protocol.wrappers.EnumWrappers;
-import me.matoosh.blockmetadata.exception.ChunkBusyException;
-import me.matoosh.blockmetadata.exception.ChunkNotLoadedException;
 import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.exception.ChunkBusyException;
+import me.matoosh.softclaims.exception.ChunkNotLoadedException;
+import me.matoosh.softclaims.util.ConcurrentIntObjectMap;
+import me.matoosh.softclaims.util.IntObjectHashMap;
 import org.bukkit.Bukkit;
 import org.bukkit.GameMode;
-import org.bukkit.Location;
 import org.bukkit.block.Block;
-import org.bukkit.enchantments.Enchantment;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -24,22 +24,60 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.Damageable;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.plugin.Plugin;
-import org.bukkit.potion.PotionEffect;
-import org.bukkit.potion.PotionEffectType;
 
-import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
 
 public class DiggersHandler implements PacketListener, Listener {
     private final SoftClaimsPlugin plugin;
-    private final HashMap<Integer, DigProgress> diggers = new HashMap<>();
-    private final PotionEffect fatigueEffect = new PotionEffect(
-            PotionEffectType.SLOW_DIGGING, 120, 3, false, false);
+    /**
+     * Dig sessions by the entity id of the digging player.
+     * Sessions are only started and stopped on the main thread.
+     */
+    private final IntObjectHashMap<DigProgress> diggers = new IntObjectHashMap<>();
+    private final DigEngine digEngine;
+    private final BlockBreakAnimator animator;
+    private final ToolPowerTable toolPowers = new ToolPowerTable();
+    private final FatigueManager fatigueManager;
+
+    /**
+     * Dig packets a player may send per tick, the excess is dropped.
+     */
+    private static final int PACKET_BUDGET = 8;
+
+    /**
+     * Latest dig command of each player by entity id.
+     * Commands are decoded on packet threads and applied on the main thread,
+     * so repeated packets within a tick collapse into one command.
+     */
+    private final ConcurrentIntObjectMap<DigCommand> commands = new ConcurrentIntObjectMap<>();
+
+    /**
+     * Players with a pending dig command, in order of arrival.
+     */
+    private final Queue<Player> commandQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Dig packets received from each player during the current tick, by entity id.
+     */
+    private final ConcurrentIntObjectMap<PacketBudget> packetBudgets = new ConcurrentIntObjectMap<>();
 
     public DiggersHandler(SoftClaimsPlugin plugin) {
         this.plugin = plugin;
+        this.animator = new BlockBreakAnimator(plugin);
+        this.fatigueManager = new FatigueManager(plugin);
+        this.digEngine = new DigEngine(plugin, this::playerDigTask, animator::remove);
+    }
+
+    /**
+     * Starts processing dig commands and the dig engine.
+     */
+    public void initialize() {
+        Bukkit.getScheduler().runTaskTimer(plugin, this::processCommands, 1, 1);
+        digEngine.initialize();
+        animator.initialize();
+        fatigueManager.initialize();
     }
 
     @Override
@@ -49,28 +87,79 @@ public class DiggersHandler implements PacketListener, Listener {
     public void onPacketReceiving(PacketEvent packetEvent) {
         // check dig event
         if(packetEvent.getPacketType() == PacketType.Play.Client.BLOCK_DIG) {
-            // check creative
-            if(packetEvent.getPlayer().getGameMode() == GameMode.CREATIVE
-                    || packetEvent.getPlayer().getGameMode() == GameMode.SPECTATOR) return;
-
-            // check dig status
+            // decode dig status, the command is applied on the main thread
             PacketContainer packet = packetEvent.getPacket();
             EnumWrappers.PlayerDigType digType = packet.getPlayerDigTypes().read(0);
             if(digType == EnumWrappers.PlayerDigType.START_DESTROY_BLOCK) {
-                // started digging
-                onStartDigging(packet.getBlockPositionModifier().read(0), packetEvent.getPlayer());
+                // started digging, dropped once the player is over budget
+                if (!consumeBudget(packetEvent.getPlayer())) return;
+                submitCommand(new DigCommand(packetEvent.getPlayer(), true,
+                        packet.getBlockPositionModifier().read(0)));
             } else if (digType == EnumWrappers.PlayerDigType.STOP_DESTROY_BLOCK
                 || digType == EnumWrappers.PlayerDigType.ABORT_DESTROY_BLOCK) {
-                // canceled digging
-                onStopDigging(packetEvent.getPlayer());
+                // canceled digging, always kept so sessions don't outlive the digging
+                consumeBudget(packetEvent.getPlayer());
+                submitCommand(new DigCommand(packetEvent.getPlayer(), false, null));
+            }
+        }
+    }
+
+    /**
+     * Replaces the pending dig command of a player.
+     * @param command The command.
+     */
+    private void submitCommand(DigCommand command) {
+        Player player = command.getPlayer();
+        if (commands.put(player.getEntityId(), command) == null) {
+            commandQueue.add(player);
+        }
+    }
+
+    /**
+     * Counts a dig packet against the player's budget for the current tick.
+     * @param player The player.
+     * @return Whether the packet is within the budget.
+     */
+    private boolean consumeBudget(Player player) {
+        PacketBudget budget = packetBudgets.get(player.getEntityId());
+        if (budget == null) {
+            budget = new PacketBudget();
+            PacketBudget previous = packetBudgets.put(player.getEntityId(), budget);
+            if (previous != null) budget = previous;
+        }
+        return budget.consume(Bukkit.getCurrentTick());
+    }
+
+    /**
+     * Called every tick.
+     * Applies the dig commands received since the last tick, in order.
+     */
+    private void processCommands() {
+        Player queued;
+        while ((queued = commandQueue.poll()) != null) {
+            DigCommand command = commands.remove(queued.getEntityId());
+            if (command == null) continue;
+            Player player = command.getPlayer();
+            if (!player.isOnline()) continue;
+            if (command.isStart()) {
+                // check creative
+                if (player.getGameMode() == GameMode.CREATIVE
+                        || player.getGameMode() == GameMode.SPECTATOR) continue;
+                onStartDigging(command.getPosition(), player);
+            } else {
+                onStopDigging(player);
             }
         }
     }
 
     /**
      * Called when a player starts digging.
+     * Has to be called from the main thread.
      */
     public void onStartDigging(BlockPosition position, Player player) {
+        // check if this world is disabled
+        if (plugin.getSoftClaimsConfig().isWorldDisabled(player.getWorld())) return;
+
         // get block
         Block block = player.getWorld().getBlockAt(position.getX(), position.getY(), position.getZ());
 
@@ -90,37 +179,46 @@ public class DiggersHandler implements PacketListener, Listener {
         }
         if (blockDurability == 0) return;
 
-        // apply fatigue
-        Bukkit.getScheduler().runTask(
-                plugin, () -> applyFatigue(player));
+        // get tool
+        ItemStack tool = player.getInventory().getItemInMainHand();
+
+        // keep the current session if the player restarted digging the same block
+        DigProgress current = diggers.get(player.getEntityId());
+        if (current != null && !current.isStopped()
+                && current.getBlock().equals(block) && current.getTool().isSimilar(tool)) {
+            applyFatigue(player);
+            return;
+        }
 
         // make sure no duplicate digging tasks are running
         onStopDigging(player);
 
-        // get tool, its digging power, and enchantments
-        ItemStack tool = player.getInventory().getItemInMainHand();
-        int toolPower = 1;
-        int toolEfficiency = 0;
-        if (tool.getAmount() > 0) {
-            toolPower = (int)block.getDestroySpeed(tool, true);
-            toolEfficiency = tool.removeEnchantment(Enchantment.DIG_SPEED);
-        }
+        // apply fatigue, after the previous session cleared it
+        applyFatigue(player);
+
+        // get tool digging power,
+        // client side efficiency is held back by the fatigue
+        int toolPower = toolPowers.getPower(block, tool);
 
-        // start digging task
-        DigProgress digProgress = new DigProgress(plugin, block, position, tool,
-                toolPower, toolEfficiency, blockDurability);
-        digProgress.setTask(Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin,
-            () -> playerDigTask(digProgress, tool, player), 20, 20));
-        diggers.put(player.getEntityId(), digProgress);
+        // start digging session
+        DigProgress digProgress = new DigProgress(plugin, player, block, position, tool,
+                toolPower, blockDurability);
+        DigProgress previous = diggers.put(player.getEntityId(), digProgress);
+        if (previous != null) {
+            // another session started concurrently
+            stopDigging(previous);
+        }
+        digEngine.add(digProgress);
     }
 
     /**
-     * Called every 20 ticks, performs operation at each swing of the player digging,
+     * Called by the dig engine every 20 ticks, performs operation at each swing of the player digging,
      * @param digProgress
-     * @param tool
-     * @param player
      */
-    private void playerDigTask(DigProgress digProgress, ItemStack tool, Player player) {
+    private void playerDigTask(DigProgress digProgress) {
+        Player player = digProgress.getPlayer();
+        ItemStack tool = digProgress.getTool();
+
         // do swing
         int swingsSinceSave = digProgress.onSwing();
         if (swingsSinceSave > 5) {
@@ -128,21 +226,26 @@ public class DiggersHandler implements PacketListener, Listener {
             try {
                 digProgress.save();
             } catch (ChunkBusyException | ChunkNotLoadedException e) {
-                e.printStackTrace();
+                plugin.getLogger().log(Level.WARNING, "Couldn't save the dig progress", e);
             }
         }
 
         if (digProgress.getCurrentDurability() <= 0) {
-            // cancel task
-            onStopDigging(player);
+            // cancel task, unless it was already replaced
+            if (diggers.remove(player.getEntityId(), digProgress)) {
+                stopDigging(digProgress);
+            }
 
-            // break block
+            // forget the block's durability and break it
+            try {
+                plugin.getBlockDurabilityService().clearDestroyedBlock(digProgress.getBlock());
+            } catch (ChunkBusyException | ChunkNotLoadedException e) {
+                plugin.getLogger().log(Level.WARNING, "Couldn't clear the durability of a destroyed block", e);
+            }
             digProgress.getBlock().breakNaturally(tool);
         } else {
             // update progress
-            setDigProgress(player,
-                    digProgress.getPosition(),
-                    digProgress.getAnimationProgress());
+            animator.update(digProgress);
             plugin.getCommunicationService().showDurability(
                     player,
                     digProgress.getCurrentDurability(),
@@ -152,43 +255,46 @@ public class DiggersHandler implements PacketListener, Listener {
 
     /**
      * Stops a digging task for a player.
+     * Has to be called from the main thread.
      * @param player
      */
     public void onStopDigging(Player player) {
-        if (isDigging(player)) {
-            // retrieve the dig progress
-            DigProgress digProgress = diggers.remove(player.getEntityId());
-            Bukkit.getScheduler().cancelTask(digProgress.getTask());
+        // retrieve the dig progress
+        DigProgress digProgress = diggers.remove(player.getEntityId());
+        if (digProgress != null) {
+            stopDigging(digProgress);
+        }
+    }
 
-            // save block durability and damage tool
-            try {
-                digProgress.save();
-            } catch (ChunkBusyException | ChunkNotLoadedException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Stops a digging session already removed from the diggers.
+     * @param digProgress The session.
+     */
+    private void stopDigging(DigProgress digProgress) {
+        Player player = digProgress.getPlayer();
+        digProgress.stop();
 
-            // restore player's enchantments
-            if (digProgress.getTool().getAmount() > 0
-                    && digProgress.getToolEfficiency() > 0) {
-                ItemMeta meta = digProgress.getTool().getItemMeta();
-                meta.addEnchant(Enchantment.DIG_SPEED,
-                        digProgress.getToolEfficiency(), false);
-                digProgress.getTool().setItemMeta(meta);
-            }
+        // save block durability and damage tool
+        try {
+            digProgress.save();
+        } catch (ChunkBusyException | ChunkNotLoadedException e) {
+            plugin.getLogger().log(Level.WARNING, "Couldn't save the dig progress", e);
+        }
 
-            // clear fatigue effect
-            Bukkit.getScheduler().runTask(
-                    plugin, () -> clearFatigue(player));
+        // clear fatigue effect
+        clearFatigue(player);
 
-            // clear animation
-            setDigProgress(player, digProgress.getPosition(), -1);
-        }
+        // the animation is cleared once the dig engine drops the session
     }
 
     @EventHandler
     public void onPlayerDisconnect(PlayerQuitEvent event) {
         // cancel dig task for leaving player
         onStopDigging(event.getPlayer());
+        fatigueManager.forgetPlayer(event.getPlayer());
+        packetBudgets.remove(event.getPlayer().getEntityId());
+        plugin.getCommunicationService().forgetPlayer(event.getPlayer());
+        animator.forgetPlayer(event.getPlayer());
     }
 
     @Override
@@ -210,49 +316,19 @@ public class DiggersHandler implements PacketListener, Listener {
     }
 
     /**
-     * Applies mining fatigue for player.
+     * Applies mining fatigue for player on the next tick.
      * @param player
      */
     public void applyFatigue(Player player) {
-        Bukkit.getScheduler().runTask(plugin, () -> {
-            player.addPotionEffect(fatigueEffect);
-        });
+        fatigueManager.applyFatigue(player);
     }
 
     /**
-     * Clears mining fatigue from player.
+     * Clears mining fatigue from player on the next tick.
      * @param player
      */
     public void clearFatigue(Player player) {
-        player.removePotionEffect(PotionEffectType.SLOW_DIGGING);
-    }
-
-    /**
-     * Sets a player's dig progress.
-     * Progress is from 0-9
-     * @param player
-     * @param progress
-     */
-    private void setDigProgress(Player player, BlockPosition blockPosition, int progress) {
-        PacketContainer packetContainer = new PacketContainer(PacketType.Play.Server.BLOCK_BREAK_ANIMATION);
-        // set entity id
-        packetContainer.getIntegers().write(0, player.getEntityId() + 1);
-        // set block position
-        packetContainer.getBlockPositionModifier().write(0, blockPosition);
-        // set progress
-        packetContainer.getIntegers().write(1, progress);
-
-        // send progress
-        Bukkit.getScheduler().runTask(plugin,
-                () -> blockPosition.toLocation(player.getWorld())
-                        .getNearbyPlayers(20).forEach((p) -> {
-            // send
-            try {
-                plugin.getProtocolManager().sendServerPacket(p, packetContainer);
-            } catch (InvocationTargetException e) {
-                e.printStackTrace();
-            }
-        }));
+        fatigueManager.clearFatigue(player);
     }
 
     /**
@@ -265,16 +341,54 @@ public class DiggersHandler implements PacketListener, Listener {
     }
 
     /**
-     * Gets players around a location.
-     * @param location Location around which to find players.
-     * @param distance Max distance around the location.
-     * @return List of players around the location within the specified distance.
+     * A dig packet decoded on a packet thread.
+     */
+    private static class DigCommand {
+        private final Player player;
+        private final boolean start;
+        private final BlockPosition position;
+
+        public DigCommand(Player player, boolean start, BlockPosition position) {
+            this.player = player;
+            this.start = start;
+            this.position = position;
+        }
+
+        public Player getPlayer() {
+            return player;
+        }
+
+        /**
+         * Whether the player started digging, rather than stopped.
+         */
+        public boolean isStart() {
+            return start;
+        }
+
+        public BlockPosition getPosition() {
+            return position;
+        }
+    }
+
+    /**
+     * Dig packets received from a player during a tick.
      */
-    public List<Player> getNearbyPlayers(Location location, int distance) {
-        int distSquared = distance * distance;
-        return Bukkit.getOnlinePlayers().parallelStream().filter(
-                (p) -> p.getLocation().distanceSquared(location) < distSquared)
-                .collect(Collectors.toList());
+    private static class PacketBudget {
+        private int tick = -1;
+        private int packets;
+
+        /**
+         * Counts a packet received during a tick.
+         * @param tick The current tick.
+         * @return Whether the packet is within the budget.
+         */
+        public synchronized boolean consume(int tick) {
+            if (this.tick != tick) {
+                this.tick = tick;
+                this.packets = 0;
+            }
+            return ++packets <= PACKET_BUDGET;
+        }
     }
 
     /**
@@ -283,11 +397,11 @@ public class DiggersHandler implements PacketListener, Listener {
     static class DigProgress {
         private final SoftClaimsPlugin plugin;
 
+        private final Player player;
         private final Block block;
         private final BlockPosition position;
 
         private final int toolPower;
-        private final int toolEfficiency;
         private final ItemStack tool;
         private final double toolDamageModifier;
         private final ItemMeta toolMeta;
@@ -296,21 +410,22 @@ public class DiggersHandler implements PacketListener, Listener {
         private int swingsSinceSave = 0;
         private int lastDurability;
 
-        private int task;
+        private long nextSwingTick;
+        private volatile boolean stopped = false;
 
         public DigProgress(SoftClaimsPlugin plugin,
+                           Player player,
                            Block block,
                            BlockPosition position,
                            ItemStack tool,
                            int toolPower,
-                           int toolEfficiency,
                            int startDurability) {
             this.plugin = plugin;
+            this.player = player;
             this.block = block;
             this.position = position;
             this.tool = tool;
             this.toolPower = toolPower;
-            this.toolEfficiency = toolEfficiency;
             this.lastDurability = startDurability;
             this.totalDurability = plugin.getBlockDurabilityService()
                     .getTotalDurability(block.getType());
@@ -318,7 +433,7 @@ public class DiggersHandler implements PacketListener, Listener {
             // get tool meta only if tool is damageable
             ItemMeta toolMeta = this.tool.getItemMeta();
             if (toolMeta instanceof Damageable) {
-                this.toolDamageModifier = plugin.getConfig().getDouble("toolDamageModifier", 0.2d);
+                this.toolDamageModifier = plugin.getSoftClaimsConfig().getToolDamageModifier();
                 this.toolMeta = toolMeta;
             } else {
                 this.toolDamageModifier = 0;
@@ -326,6 +441,10 @@ public class DiggersHandler implements PacketListener, Listener {
             }
         }
 
+        public Player getPlayer() {
+            return player;
+        }
+
         public Block getBlock() {
             return block;
         }
@@ -351,19 +470,33 @@ public class DiggersHandler implements PacketListener, Listener {
                 tool.setItemMeta(toolMeta);
             }
 
-            // damage blocks
-            lastDurability = plugin.getBlockDurabilityService().getDurabilityAbsolute(block);
-            lastDurability -= swingsSinceSave * toolPower;
-            plugin.getBlockDurabilityService().setDurabilityAbsolute(block, lastDurability);
+            // damage blocks, the damage is merged into storage on the next tick
+            int damage = swingsSinceSave * toolPower;
             swingsSinceSave = 0;
+            lastDurability -= damage;
+            plugin.getBlockDurabilityService().queueDamage(block, damage);
+
+            // sync with damage dealt by other diggers
+            lastDurability = plugin.getBlockDurabilityService().getDurabilityAbsolute(block);
         }
 
-        public int getTask() {
-            return task;
+        public long getNextSwingTick() {
+            return nextSwingTick;
         }
 
-        public void setTask(int task) {
-            this.task = task;
+        public void setNextSwingTick(long nextSwingTick) {
+            this.nextSwingTick = nextSwingTick;
+        }
+
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        /**
+         * Stops the session, the dig engine drops it on its next tick.
+         */
+        public void stop() {
+            this.stopped = true;
         }
 
         public int getTotalDurability() {
@@ -371,11 +504,7 @@ public class DiggersHandler implements PacketListener, Listener {
         }
 
         public int getAnimationProgress() {
-            return (int) (9f * (1f - (float) getCurrentDurability()) / ((float) getTotalDurability()));
-        }
-
-        public int getToolEfficiency() {
-            return toolEfficiency;
+            return (int) (9f * (1f - (float) getCurrentDurability() / (float) getTotalDurability()));
         }
 
         public ItemStack getTool() {
@@ -1,11 +1,12 @@
 package me.matoosh.softclaims.events;
 
-import me.matoosh.blockmetadata.exception.ChunkBusyException;
-import me.matoosh.blockmetadata.exception.ChunkNotLoadedException;
 import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.config.SoftClaimsConfig;
+import me.matoosh.softclaims.durability.DurabilityBatch;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -14,7 +15,6 @@ import org.bukkit.event.entity.EntityExplodeEvent;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.function.Function;
 
 public class ExplosionHandler implements Listener {
 
@@ -22,27 +22,39 @@ public class ExplosionHandler implements Listener {
 
     private static final int EXPLOSION_RADIUS = 3;
 
+    /**
+     * Max number of blocks captured by one snapshot.
+     * Overlapping explosions beyond it are split into separate snapshots.
+     */
+    private static final int MAX_SNAPSHOT_VOLUME = 32768;
+
+    /**
+     * Explosions of the current tick by world.
+     */
+    private final Map<World, List<ExplosionSnapshot.Explosion>> pendingExplosions = new HashMap<>();
+
     public ExplosionHandler(SoftClaimsPlugin plugin) {
         this.plugin = plugin;
+
+        // resolve the explosions of each tick together
+        Bukkit.getScheduler().runTaskTimer(plugin, this::processExplosions, 1, 1);
     }
 
     @EventHandler
     public void onEntityExplosion(EntityExplodeEvent event) {
-        onExplosion(event.blockList(), event.getLocation(), (s) -> plugin.getConfig().getInt(
-                "explosionDamage." + event.getEntityType().name(), 100));
+        int power = plugin.getSoftClaimsConfig().getExplosionDamage(event.getEntityType());
+        onExplosion(event.blockList(), event.getLocation(), power);
     }
 
     @EventHandler
     public void onBlockExplosion(BlockExplodeEvent event) {
-        onExplosion(event.blockList(), event.getBlock().getLocation(), (s) -> plugin.getConfig().getInt(
-                "explosionDamage." + event.getBlock().getType().name(), 100));
+        int power = plugin.getSoftClaimsConfig().getExplosionDamage(event.getBlock().getType());
+        onExplosion(event.blockList(), event.getBlock().getLocation(), power);
     }
 
-    private void onExplosion(List<Block> blockList, Location location,
-                             Function<Void, Integer> powerFunction) {
+    private void onExplosion(List<Block> blockList, Location location, int power) {
         // check if this world is disabled
-        if (plugin.getConfig().getStringList("disabledWorlds")
-                .contains(location.getWorld().getName())) {
+        if (plugin.getSoftClaimsConfig().isWorldDisabled(location.getWorld())) {
             return;
         }
 
@@ -76,75 +88,126 @@ public class ExplosionHandler implements Listener {
             }
         }
 
-        // process durable block further asynchronously
-        processDurableBlocksAsync(durableBlocks, location, powerFunction);
+        // queue the explosion, it's resolved together with
+        // the other explosions nearby at the end of the tick
+        pendingExplosions.computeIfAbsent(location.getWorld(), (w) -> new ArrayList<>())
+                .add(new ExplosionSnapshot.Explosion(location, power, durableBlocks));
     }
 
-    private CompletableFuture<Void> processDurableBlocksAsync(
-            List<Block> durableBlocks, Location location,
-            Function<Void, Integer> powerFunction) {
-        return CompletableFuture.runAsync(() -> {
-            // get blocks around
-            for (int x = -EXPLOSION_RADIUS; x <= EXPLOSION_RADIUS; x++) {
-                for (int y = -EXPLOSION_RADIUS; y <= EXPLOSION_RADIUS; y++) {
-                    for (int z = -EXPLOSION_RADIUS; z <= EXPLOSION_RADIUS; z++) {
-                        if (x == 0 && y == 0 && z == 0) continue;
-
-                        Block block = location.clone().add(x, y, z).getBlock();
-                        if (block.getType().getBlastResistance() >= 1200) {
-                            // block that doesnt appear in the normal explosion list
-                            if (plugin.getBlockDurabilityService().hasDurability(block)) {
-                                durableBlocks.add(block);
-                            }
-                        }
-                    }
-                }
+    /**
+     * Called every tick.
+     * Captures the surroundings of the queued explosions and resolves their damage asynchronously.
+     */
+    private void processExplosions() {
+        if (pendingExplosions.isEmpty()) return;
+
+        // capture a snapshot per group of nearby explosions
+        List<ExplosionSnapshot> snapshots = new ArrayList<>();
+        for (Map.Entry<World, List<ExplosionSnapshot.Explosion>> worldExplosions
+                : pendingExplosions.entrySet()) {
+            for (List<ExplosionSnapshot.Explosion> explosions
+                    : groupOverlapping(worldExplosions.getValue())) {
+                snapshots.add(ExplosionSnapshot.capture(
+                        plugin, worldExplosions.getKey(), explosions, EXPLOSION_RADIUS));
             }
+        }
+        pendingExplosions.clear();
 
-            // check if we found any blocks
-            if (durableBlocks.size() == 0) return;
+        // resolve the snapshots in parallel
+        SoftClaimsConfig config = plugin.getSoftClaimsConfig();
+        List<CompletableFuture<List<ExplosionSnapshot.BlockDamage>>> resolved = new ArrayList<>();
+        for (ExplosionSnapshot snapshot : snapshots) {
+            resolved.add(CompletableFuture.supplyAsync(() -> snapshot.resolve(config)));
+        }
+        CompletableFuture.allOf(resolved.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            // apply damage and break blocks on the main thread
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                DurabilityBatch batch = new DurabilityBatch();
+                for (int i = 0; i < snapshots.size(); i++) {
+                    World world = snapshots.get(i).getWorld();
+                    for (ExplosionSnapshot.BlockDamage blockDamage : resolved.get(i).join()) {
+                        batch.damage(world.getBlockAt(blockDamage.getX(), blockDamage.getY(), blockDamage.getZ()),
+                                blockDamage.getDamage());
+                    }
+                }
+                applyDamage(batch);
+            });
+        }).exceptionally((e) -> {
+            e.printStackTrace();
+            return null;
+        });
+    }
 
-            // get power
-            int power = powerFunction.apply(null);
+    /**
+     * Applies resolved explosion damage.
+     * Has to be called from the main thread.
+     * @param batch The damage dealt to each block.
+     */
+    private void applyDamage(DurabilityBatch batch) {
+        if (batch.isEmpty()) return;
+        List<Block> destroyedBlocks = plugin.getBlockDurabilityService()
+                .applyBatch(batch).getBlocks(DurabilityBatch.Outcome.DESTROYED);
+
+        // break blocks over the next ticks
+        plugin.getBlockBreakQueue().addAll(destroyedBlocks);
+    }
 
-            // apply damage to blocks
-            List<Block> destroyedBlocks = new ArrayList<>();
-            for (Block b : durableBlocks) {
-                int durability;
-                try {
-                    durability = plugin.getBlockDurabilityService().getDurabilityAbsolute(b);
-                } catch (ChunkBusyException | ChunkNotLoadedException e) {
-                    continue;
-                }
+    /**
+     * Groups the explosions whose boxes overlap, directly or through other explosions,
+     * so every block is damaged by a single snapshot.
+     * Groups over the max snapshot volume are split, in which case
+     * blocks shared by the split groups get one change per group.
+     * @param explosions The explosions of a world.
+     * @return The groups.
+     */
+    private List<List<ExplosionSnapshot.Explosion>> groupOverlapping(
+            List<ExplosionSnapshot.Explosion> explosions) {
+        int count = explosions.size();
+        int[][] bounds = new int[count][];
+        int[] parents = new int[count];
+        for (int i = 0; i < count; i++) {
+            bounds[i] = explosions.get(i).getBounds(EXPLOSION_RADIUS);
+            parents[i] = i;
+        }
 
-                // calculate damage to block based on distance
-                // to the center of the explosion
-                double dist = location.distance(b.getLocation().add(0.5, 0.5, 0.5)) - 1;
-                // 2 and 0.7 ensure that explosion 1 block away from the block
-                // damaged the block with the full power. Explosions inside of the
-                // block will result in double the power being exerted.
-                durability -= power * Math.exp(-dist);
-                if(durability > 0) {
-                    // update durability
-                    try {
-                        plugin.getBlockDurabilityService().setDurabilityAbsolute(b, durability);
-                    } catch (ChunkBusyException | ChunkNotLoadedException e) {
-                        e.printStackTrace();
-                    }
-                } else {
-                    // block exploded
-                    try {
-                        plugin.getBlockDurabilityService().clearDurability(b);
-                    } catch (ChunkBusyException | ChunkNotLoadedException ignored) {
-                        // cant happen cause the chunk must be loaded for explosion
-                    }
-                    destroyedBlocks.add(b);
+        // join the explosions whose boxes overlap
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                if (ExplosionSnapshot.intersects(bounds[i], bounds[j])) {
+                    parents[findRoot(parents, i)] = findRoot(parents, j);
                 }
             }
+        }
 
-            // break blocks
-            Bukkit.getScheduler().runTask(plugin, () -> destroyedBlocks.forEach(Block::breakNaturally));
-        });
+        // collect the joined explosions, starting a new group once one is full
+        List<List<ExplosionSnapshot.Explosion>> groups = new ArrayList<>();
+        int[] groupVolumes = new int[count];
+        int[] rootGroups = new int[count];
+        Arrays.fill(rootGroups, -1);
+        for (int i = 0; i < count; i++) {
+            ExplosionSnapshot.Explosion explosion = explosions.get(i);
+            int volume = explosion.getVolume(EXPLOSION_RADIUS);
+            int root = findRoot(parents, i);
+            int group = rootGroups[root];
+            if (group < 0 || groupVolumes[group] + volume > MAX_SNAPSHOT_VOLUME) {
+                group = groups.size();
+                groups.add(new ArrayList<>());
+                rootGroups[root] = group;
+            }
+            groups.get(group).add(explosion);
+            groupVolumes[group] += volume;
+        }
+        return groups;
+    }
 
+    /**
+     * Finds the root of an explosion in a union-find forest, halving the path on the way.
+     */
+    private static int findRoot(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
     }
 }
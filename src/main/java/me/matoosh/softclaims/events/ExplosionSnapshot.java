@@ -0,0 +1,446 @@
+package me.matoosh.softclaims.events;
+
+import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.config.SoftClaimsConfig;
+import me.matoosh.softclaims.durability.DurabilityStorage;
+import me.matoosh.softclaims.faction.FactionService;
+import me.matoosh.softclaims.util.LongLongHashMap;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compact copy of the blocks around a group of nearby explosions.
+ * Only the cube around each explosion and its listed blocks are captured,
+ * stored sparsely in small cells, so distant explosions in one group
+ * don't capture the space between them.
+ * Captured on the main thread, so the damage can be resolved
+ * on any thread without touching the live world.
+ * The damage of all explosions is summed into a single field,
+ * so every block gets one combined change.
+ * Explosions propagate outwards from their origin, and the blocks they pass
+ * absorb their power by blast resistance, so walls shield the blocks behind them.
+ */
+public class ExplosionSnapshot {
+
+    /**
+     * Blast resistance from which blocks don't appear in the explosion's block list.
+     */
+    private static final float UNBREAKABLE_RESISTANCE = 1200;
+
+    /**
+     * Log2 of the edge length of the cells the blocks are captured in.
+     */
+    private static final int CELL_BITS = 2;
+    private static final int CELL_MASK = (1 << CELL_BITS) - 1;
+
+    private final World world;
+    private final List<Explosion> explosions;
+    private final int radius;
+
+    /**
+     * Slots of the captured cells by cell key.
+     */
+    private final LongLongHashMap cellSlots;
+
+    /**
+     * Block types of the captured cells, indexed by slot, x, z, y.
+     * Blocks which weren't captured are null.
+     */
+    private final Material[] types;
+
+    /**
+     * Keys of the captured chunks in faction land.
+     */
+    private final Set<Long> factionChunks;
+
+    private ExplosionSnapshot(World world, List<Explosion> explosions, int radius,
+                              LongLongHashMap cellSlots, Material[] types, Set<Long> factionChunks) {
+        this.world = world;
+        this.explosions = explosions;
+        this.radius = radius;
+        this.cellSlots = cellSlots;
+        this.types = types;
+        this.factionChunks = factionChunks;
+    }
+
+    /**
+     * Captures the blocks around a group of explosions in the same world.
+     * Has to be called from the main thread.
+     * @param plugin The plugin.
+     * @param world The world of the explosions.
+     * @param explosions The explosions.
+     * @param radius The radius of the cube around each explosion.
+     * @return The snapshot.
+     */
+    public static ExplosionSnapshot capture(SoftClaimsPlugin plugin, World world,
+                                            List<Explosion> explosions, int radius) {
+        int maxY = world.getMaxHeight() - 1;
+
+        // assign a slot to every cell touched by a cube or a listed block
+        LongLongHashMap cellSlots = new LongLongHashMap();
+        for (Explosion explosion : explosions) {
+            int minCellY = Math.max(0, explosion.originY - radius) >> CELL_BITS;
+            int maxCellY = Math.min(maxY, explosion.originY + radius) >> CELL_BITS;
+            for (int cellX = (explosion.originX - radius) >> CELL_BITS;
+                 cellX <= (explosion.originX + radius) >> CELL_BITS; cellX++) {
+                for (int cellZ = (explosion.originZ - radius) >> CELL_BITS;
+                     cellZ <= (explosion.originZ + radius) >> CELL_BITS; cellZ++) {
+                    for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                        addCell(cellSlots, cellKey(cellX, cellY, cellZ));
+                    }
+                }
+            }
+            int[] listed = explosion.listedPositions;
+            for (int i = 0; i < listed.length; i += 3) {
+                addCell(cellSlots, cellKey(listed[i] >> CELL_BITS,
+                        listed[i + 1] >> CELL_BITS, listed[i + 2] >> CELL_BITS));
+            }
+        }
+
+        // copy block types of the cubes and listed blocks, without loading chunks
+        // blocks of unloaded chunks are captured as air
+        Material[] types = new Material[cellSlots.size() << (CELL_BITS * 3)];
+        for (Explosion explosion : explosions) {
+            int minY = Math.max(0, explosion.originY - radius);
+            int maxCubeY = Math.min(maxY, explosion.originY + radius);
+            for (int x = explosion.originX - radius; x <= explosion.originX + radius; x++) {
+                for (int z = explosion.originZ - radius; z <= explosion.originZ + radius; z++) {
+                    boolean loaded = world.isChunkLoaded(x >> 4, z >> 4);
+                    for (int y = minY; y <= maxCubeY; y++) {
+                        captureBlock(world, cellSlots, types, loaded, x, y, z);
+                    }
+                }
+            }
+            int[] listed = explosion.listedPositions;
+            for (int i = 0; i < listed.length; i += 3) {
+                captureBlock(world, cellSlots, types, true, listed[i], listed[i + 1], listed[i + 2]);
+            }
+        }
+
+        // check which loaded chunks are in faction land
+        Set<Long> checkedChunks = new HashSet<>();
+        Set<Long> factionChunks = new HashSet<>();
+        cellSlots.forEach((cell, slot) -> {
+            int chunkX = unpackCellX(cell) >> (4 - CELL_BITS);
+            int chunkZ = unpackCellZ(cell) >> (4 - CELL_BITS);
+            long chunkKey = DurabilityStorage.getChunkKey(chunkX, chunkZ);
+            if (!checkedChunks.add(chunkKey)) return;
+            if (world.isChunkLoaded(chunkX, chunkZ) && plugin.getFactionService()
+                    .getFactionIdAt(world, chunkX, chunkZ) != FactionService.NO_FACTION) {
+                factionChunks.add(chunkKey);
+            }
+        });
+
+        return new ExplosionSnapshot(world, explosions, radius, cellSlots, types, factionChunks);
+    }
+
+    /**
+     * Assigns the next slot to a cell, unless it already has one.
+     */
+    private static void addCell(LongLongHashMap cellSlots, long cell) {
+        if (!cellSlots.containsKey(cell)) {
+            cellSlots.put(cell, cellSlots.size());
+        }
+    }
+
+    /**
+     * Copies the type of a block into its cell slot, unless it was already captured.
+     */
+    private static void captureBlock(World world, LongLongHashMap cellSlots, Material[] types,
+                                     boolean loaded, int x, int y, int z) {
+        int index = slotIndex(cellSlots, x, y, z);
+        if (index < 0 || types[index] != null) return;
+        types[index] = loaded ? world.getBlockAt(x, y, z).getType() : Material.AIR;
+    }
+
+    /**
+     * Resolves the combined damage the explosions deal to durable blocks.
+     * Can be called from any thread.
+     * @param config The config.
+     * @return The damage dealt to each durable block.
+     */
+    public List<BlockDamage> resolve(SoftClaimsConfig config) {
+        FalloffKernel kernel = FalloffKernel.of(radius);
+        double[] field = new double[types.length];
+
+        // share of power let through by each block, computed on first use
+        float[] transmission = new float[types.length];
+        Arrays.fill(transmission, -1);
+
+        // power reaching each offset of the cube
+        int size = radius * 2 + 1;
+        double[] reach = new double[size * size * size];
+        for (Explosion explosion : explosions) {
+            // blocks listed by the explosion
+            int[] listed = explosion.listedPositions;
+            for (int i = 0; i < listed.length; i += 3) {
+                addDamage(field, explosion, explosion.power, listed[i], listed[i + 1], listed[i + 2]);
+            }
+
+            // blocks that don't appear in the normal explosion list,
+            // nearest first until the damage drops below a durability point
+            Arrays.fill(reach, 0);
+            reach[offsetIndex(0, 0, 0)] = explosion.power;
+            for (int i = 0; i < kernel.size(); i++) {
+                if (explosion.power * kernel.getMaxFalloff(i) < 1) break;
+                int dx = kernel.getDx(i);
+                int dy = kernel.getDy(i);
+                int dz = kernel.getDz(i);
+                int x = explosion.originX + dx;
+                int y = explosion.originY + dy;
+                int z = explosion.originZ + dz;
+                int index = indexOf(x, y, z);
+                if (index < 0) continue;
+
+                // power coming through the neighbours closer to the origin,
+                // which are always earlier in the kernel
+                double power = 0;
+                if (dx != 0) power = Math.max(power, passedPower(reach, transmission,
+                        explosion, dx - Integer.signum(dx), dy, dz));
+                if (dy != 0) power = Math.max(power, passedPower(reach, transmission,
+                        explosion, dx, dy - Integer.signum(dy), dz));
+                if (dz != 0) power = Math.max(power, passedPower(reach, transmission,
+                        explosion, dx, dy, dz - Integer.signum(dz)));
+                if (power * kernel.getMaxFalloff(i) < 1) continue;
+                reach[offsetIndex(dx, dy, dz)] = power;
+
+                Material type = types[index];
+                if (type.getBlastResistance() < UNBREAKABLE_RESISTANCE) continue;
+                if (!config.isTracked(type)) continue;
+                if (!factionChunks.contains(DurabilityStorage.getChunkKey(x >> 4, z >> 4))) continue;
+                addDamage(field, explosion, power, x, y, z);
+            }
+        }
+
+        // collect damaged blocks
+        List<BlockDamage> damage = new ArrayList<>();
+        cellSlots.forEach((cell, slot) -> {
+            int baseX = unpackCellX(cell) << CELL_BITS;
+            int baseY = unpackCellY(cell) << CELL_BITS;
+            int baseZ = unpackCellZ(cell) << CELL_BITS;
+            int base = (int) slot << (CELL_BITS * 3);
+            for (int i = 0; i < 1 << (CELL_BITS * 3); i++) {
+                if (field[base + i] > 0) {
+                    damage.add(new BlockDamage(baseX + (i >> (CELL_BITS * 2)), baseY + (i & CELL_MASK),
+                            baseZ + ((i >> CELL_BITS) & CELL_MASK), field[base + i]));
+                }
+            }
+        });
+        return damage;
+    }
+
+    /**
+     * Gets the power of an explosion let through by the block at an offset.
+     * The origin lets through the full power reaching it.
+     */
+    private double passedPower(double[] reach, float[] transmission, Explosion explosion,
+                               int dx, int dy, int dz) {
+        double power = reach[offsetIndex(dx, dy, dz)];
+        if (power <= 0 || (dx == 0 && dy == 0 && dz == 0)) return power;
+        int index = indexOf(explosion.originX + dx, explosion.originY + dy, explosion.originZ + dz);
+        if (index < 0) return 0;
+        if (transmission[index] < 0) {
+            // unbreakable blocks absorb all power, weaker ones a share of it
+            transmission[index] = Math.max(0, 1 - types[index].getBlastResistance() / UNBREAKABLE_RESISTANCE);
+        }
+        return power * transmission[index];
+    }
+
+    /**
+     * Adds the damage of an explosion to a block based on its distance to the center of the explosion.
+     * @param power The power of the explosion reaching the block.
+     */
+    private void addDamage(double[] field, Explosion explosion, double power, int x, int y, int z) {
+        int index = indexOf(x, y, z);
+        if (index < 0) return;
+        double dx = x + 0.5 - explosion.centerX;
+        double dy = y + 0.5 - explosion.centerY;
+        double dz = z + 0.5 - explosion.centerZ;
+        field[index] += power * FalloffKernel.falloff(Math.sqrt(dx * dx + dy * dy + dz * dz));
+    }
+
+    private int offsetIndex(int dx, int dy, int dz) {
+        int size = radius * 2 + 1;
+        return ((dx + radius) * size + dz + radius) * size + dy + radius;
+    }
+
+    /**
+     * Gets the index of a captured block.
+     * @return The index, or -1 if the block wasn't captured.
+     */
+    private int indexOf(int x, int y, int z) {
+        int index = slotIndex(cellSlots, x, y, z);
+        return index < 0 || types[index] == null ? -1 : index;
+    }
+
+    /**
+     * Gets the index of a block within the slot of its cell.
+     * @return The index, or -1 if the cell has no slot.
+     */
+    private static int slotIndex(LongLongHashMap cellSlots, int x, int y, int z) {
+        if (y < 0) return -1;
+        long slot = cellSlots.get(cellKey(x >> CELL_BITS, y >> CELL_BITS, z >> CELL_BITS), -1);
+        if (slot < 0) return -1;
+        return ((int) slot << (CELL_BITS * 3)) | ((x & CELL_MASK) << (CELL_BITS * 2))
+                | ((z & CELL_MASK) << CELL_BITS) | (y & CELL_MASK);
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Checks whether two boxes from {@link Explosion#getBounds(int)} intersect.
+     */
+    public static boolean intersects(int[] a, int[] b) {
+        return a[0] <= b[3] && b[0] <= a[3]
+                && a[1] <= b[4] && b[1] <= a[4]
+                && a[2] <= b[5] && b[2] <= a[5];
+    }
+
+    /**
+     * Packs the coordinates of a cell.
+     */
+    static long cellKey(int cellX, int cellY, int cellZ) {
+        return ((long) cellZ << 36)
+                | ((long) (cellX & 0xFFFFFFF) << 8)
+                | (cellY & 0xFF);
+    }
+
+    static int unpackCellX(long key) {
+        return (int) (key << 28 >> 36);
+    }
+
+    static int unpackCellY(long key) {
+        return (int) (key & 0xFF);
+    }
+
+    static int unpackCellZ(long key) {
+        return (int) (key >> 36);
+    }
+
+    /**
+     * A single explosion.
+     */
+    public static class Explosion {
+        private final double centerX;
+        private final double centerY;
+        private final double centerZ;
+        private final int originX;
+        private final int originY;
+        private final int originZ;
+        private final int power;
+
+        /**
+         * Positions of the durable blocks listed by the explosion itself.
+         */
+        private final int[] listedPositions;
+
+        /**
+         * Creates an explosion.
+         * Has to be called from the main thread.
+         * @param location The center of the explosion.
+         * @param power The power of the explosion.
+         * @param listedBlocks Durable blocks listed by the explosion.
+         */
+        public Explosion(Location location, int power, List<Block> listedBlocks) {
+            this.centerX = location.getX();
+            this.centerY = location.getY();
+            this.centerZ = location.getZ();
+            this.originX = location.getBlockX();
+            this.originY = location.getBlockY();
+            this.originZ = location.getBlockZ();
+            this.power = power;
+            this.listedPositions = new int[listedBlocks.size() * 3];
+            for (int i = 0; i < listedBlocks.size(); i++) {
+                Block block = listedBlocks.get(i);
+                listedPositions[i * 3] = block.getX();
+                listedPositions[i * 3 + 1] = block.getY();
+                listedPositions[i * 3 + 2] = block.getZ();
+            }
+        }
+
+        /**
+         * Gets the box containing the cube around the explosion and its listed blocks.
+         * @param radius The radius of the cube around the explosion.
+         * @return The min x, y, z followed by the max x, y, z of the box.
+         */
+        public int[] getBounds(int radius) {
+            int[] bounds = {originX - radius, originY - radius, originZ - radius,
+                    originX + radius, originY + radius, originZ + radius};
+            for (int i = 0; i < listedPositions.length; i += 3) {
+                bounds[0] = Math.min(bounds[0], listedPositions[i]);
+                bounds[1] = Math.min(bounds[1], listedPositions[i + 1]);
+                bounds[2] = Math.min(bounds[2], listedPositions[i + 2]);
+                bounds[3] = Math.max(bounds[3], listedPositions[i]);
+                bounds[4] = Math.max(bounds[4], listedPositions[i + 1]);
+                bounds[5] = Math.max(bounds[5], listedPositions[i + 2]);
+            }
+            return bounds;
+        }
+
+        /**
+         * Gets the number of blocks captured for the explosion,
+         * counting blocks shared with other explosions once per explosion.
+         * @param radius The radius of the cube around the explosion.
+         * @return The number of blocks.
+         */
+        public int getVolume(int radius) {
+            int size = radius * 2 + 1;
+            return size * size * size + listedPositions.length / 3;
+        }
+
+        public int getOriginX() {
+            return originX;
+        }
+
+        public int getOriginY() {
+            return originY;
+        }
+
+        public int getOriginZ() {
+            return originZ;
+        }
+    }
+
+    /**
+     * Damage resolved for a single block.
+     */
+    public static class BlockDamage {
+        private final int x;
+        private final int y;
+        private final int z;
+        private final double damage;
+
+        public BlockDamage(int x, int y, int z, double damage) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.damage = damage;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getZ() {
+            return z;
+        }
+
+        public double getDamage() {
+            return damage;
+        }
+    }
+}
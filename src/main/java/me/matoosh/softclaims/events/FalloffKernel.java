@@ -0,0 +1,123 @@
+package me.matoosh.softclaims.events;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed offsets of the blocks in a cube around an explosion,
+ * sorted by their distance to the explosion's block.
+ * Each offset carries the highest falloff it can get from an explosion
+ * anywhere within the origin block, so scans can stop as soon as
+ * the remaining offsets can't be damaged anymore.
+ */
+public class FalloffKernel {
+
+    /**
+     * Kernels by radius.
+     */
+    private static final Map<Integer, FalloffKernel> KERNELS = new ConcurrentHashMap<>();
+
+    private final int[] dx;
+    private final int[] dy;
+    private final int[] dz;
+    private final double[] maxFalloff;
+
+    private FalloffKernel(int radius) {
+        // collect the offsets of the cube, except the origin
+        int size = radius * 2 + 1;
+        int count = size * size * size - 1;
+        Integer[] order = new Integer[count];
+        int[] offsets = new int[count * 3];
+        double[] minDistances = new double[count];
+        int index = 0;
+        for (int x = -radius; x <= radius; x++) {
+            for (int y = -radius; y <= radius; y++) {
+                for (int z = -radius; z <= radius; z++) {
+                    if (x == 0 && y == 0 && z == 0) continue;
+                    offsets[index * 3] = x;
+                    offsets[index * 3 + 1] = y;
+                    offsets[index * 3 + 2] = z;
+                    minDistances[index] = Math.sqrt(square(minAxisDistance(x))
+                            + square(minAxisDistance(y)) + square(minAxisDistance(z)));
+                    order[index] = index;
+                    index++;
+                }
+            }
+        }
+
+        // sort by distance
+        Arrays.sort(order, Comparator.comparingDouble((Integer i) -> minDistances[i]));
+        dx = new int[count];
+        dy = new int[count];
+        dz = new int[count];
+        maxFalloff = new double[count];
+        for (int i = 0; i < count; i++) {
+            int offset = order[i];
+            dx[i] = offsets[offset * 3];
+            dy[i] = offsets[offset * 3 + 1];
+            dz[i] = offsets[offset * 3 + 2];
+            maxFalloff[i] = falloff(minDistances[offset]);
+        }
+    }
+
+    /**
+     * Gets the kernel of a radius, computing it on first use.
+     * @param radius The radius of the cube.
+     * @return The kernel.
+     */
+    public static FalloffKernel of(int radius) {
+        return KERNELS.computeIfAbsent(radius, FalloffKernel::new);
+    }
+
+    /**
+     * Gets the falloff of explosion damage with distance.
+     * Explosions 1 block away from the center of a block damage the block
+     * with the full power. Explosions inside of the block
+     * will result in up to e times the power being exerted.
+     * @param distance The distance from the explosion to the center of the block.
+     * @return The multiplier of the explosion's power.
+     */
+    public static double falloff(double distance) {
+        return Math.exp(1 - distance);
+    }
+
+    public int size() {
+        return dx.length;
+    }
+
+    public int getDx(int index) {
+        return dx[index];
+    }
+
+    public int getDy(int index) {
+        return dy[index];
+    }
+
+    public int getDz(int index) {
+        return dz[index];
+    }
+
+    /**
+     * Gets the highest falloff of an offset, for an explosion anywhere within the origin block.
+     * Never increases with the index.
+     * @param index The index of the offset.
+     * @return The highest falloff.
+     */
+    public double getMaxFalloff(int index) {
+        return maxFalloff[index];
+    }
+
+    /**
+     * Gets the shortest distance along an axis from a point in the origin block
+     * to the center of a block at an offset.
+     */
+    private static double minAxisDistance(int offset) {
+        return Math.max(0, Math.abs(offset) - 0.5);
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+}
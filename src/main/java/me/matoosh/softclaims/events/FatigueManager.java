@@ -0,0 +1,97 @@
+package me.matoosh.softclaims.events;
+
+import me.matoosh.softclaims.SoftClaimsPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.potion.PotionEffect;
+import org.bukkit.potion.PotionEffectType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Applies mining fatigue to players in one batch per tick.
+ * Only the last requested state of each player within a tick is applied,
+ * and the effect isn't re-added while the player still has enough of it.
+ * Has to be used from the main thread.
+ */
+public class FatigueManager {
+
+    /**
+     * Mining fatigue IV, the strongest slowdown the client applies.
+     * Keeps the client from breaking blocks on its own, efficiency included.
+     */
+    private static final PotionEffect FATIGUE_EFFECT = new PotionEffect(
+            PotionEffectType.SLOW_DIGGING, 120, 3, false, false);
+
+    /**
+     * Remaining duration below which the effect is renewed.
+     */
+    private static final int MIN_REMAINING_DURATION = 60;
+
+    private final SoftClaimsPlugin plugin;
+
+    /**
+     * Requested fatigue state of players since the last tick.
+     */
+    private final Map<Player, Boolean> requested = new HashMap<>();
+
+    public FatigueManager(SoftClaimsPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Starts applying the requested states every tick.
+     */
+    public void initialize() {
+        Bukkit.getScheduler().runTaskTimer(plugin, this::apply, 1, 1);
+    }
+
+    /**
+     * Requests mining fatigue to be applied to a player.
+     * @param player The player.
+     */
+    public void applyFatigue(Player player) {
+        requested.put(player, true);
+    }
+
+    /**
+     * Requests mining fatigue to be cleared from a player.
+     * @param player The player.
+     */
+    public void clearFatigue(Player player) {
+        requested.put(player, false);
+    }
+
+    /**
+     * Drops the pending request of a player.
+     * @param player The player.
+     */
+    public void forgetPlayer(Player player) {
+        requested.remove(player);
+    }
+
+    /**
+     * Called every tick.
+     * Applies the requested states, skipping players which already are in that state.
+     */
+    private void apply() {
+        if (requested.isEmpty()) return;
+        for (Map.Entry<Player, Boolean> request : requested.entrySet()) {
+            Player player = request.getKey();
+            if (!player.isOnline()) continue;
+
+            PotionEffect current = player.getPotionEffect(PotionEffectType.SLOW_DIGGING);
+            if (request.getValue()) {
+                // skip if the player still has enough fatigue
+                if (current != null
+                        && current.getAmplifier() >= FATIGUE_EFFECT.getAmplifier()
+                        && current.getDuration() >= MIN_REMAINING_DURATION) continue;
+                player.addPotionEffect(FATIGUE_EFFECT);
+            } else if (current != null) {
+                player.removePotionEffect(PotionEffectType.SLOW_DIGGING);
+            }
+        }
+        requested.clear();
+    }
+}
@@ -1,24 +1,39 @@
 package me.matoosh.softclaims.events;
 
-import me.matoosh.blockmetadata.exception.ChunkBusyException;
-import me.matoosh.blockmetadata.exception.ChunkNotLoadedException;
 import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.exception.ChunkBusyException;
+import me.matoosh.softclaims.exception.ChunkNotLoadedException;
+import me.matoosh.softclaims.util.LongLongHashMap;
 import org.bukkit.Bukkit;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
 import org.bukkit.event.player.PlayerInteractEvent;
 
-import java.util.HashSet;
-import java.util.Set;
-
 public class RightClickHandler implements Listener {
 
+    /**
+     * Ticks after showing durability before it can be shown again.
+     */
+    private static final int COOLDOWN = 15;
+
+    /**
+     * Interval in ticks at which expired cooldowns are swept.
+     */
+    private static final int SWEEP_INTERVAL = 1200;
+
     private final SoftClaimsPlugin plugin;
-    private final Set<Integer> cooldowns = new HashSet<>();
+
+    /**
+     * Tick at which each player last had durability shown, by entity id.
+     * Only accessed from the main thread.
+     */
+    private final LongLongHashMap cooldowns = new LongLongHashMap();
 
     public RightClickHandler(SoftClaimsPlugin plugin) {
         this.plugin = plugin;
+        Bukkit.getScheduler().runTaskTimer(plugin, this::sweepCooldowns,
+                SWEEP_INTERVAL, SWEEP_INTERVAL);
     }
 
     /**
@@ -30,7 +45,9 @@ public class RightClickHandler implements Listener {
         if (event.getAction() == Action.RIGHT_CLICK_BLOCK && event.hasBlock()) {
             // check durability
             if (event.getClickedBlock() == null) return;
-            if (cooldowns.contains(event.getPlayer().getEntityId())) return;
+            int entityId = event.getPlayer().getEntityId();
+            int tick = Bukkit.getCurrentTick();
+            if (tick - cooldowns.get(entityId, Integer.MIN_VALUE) < COOLDOWN) return;
 
             // check if block has durability
             int durability;
@@ -47,9 +64,15 @@ public class RightClickHandler implements Listener {
                             event.getClickedBlock().getType()));
 
             // do cooldown
-            int entityId = event.getPlayer().getEntityId();
-            cooldowns.add(entityId);
-            Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, () -> cooldowns.remove(entityId), 15);
+            cooldowns.put(entityId, tick);
         }
     }
+
+    /**
+     * Removes expired cooldowns, including those of players who left.
+     */
+    private void sweepCooldowns() {
+        int tick = Bukkit.getCurrentTick();
+        cooldowns.removeIf((entityId, lastUse) -> tick - lastUse >= COOLDOWN);
+    }
 }
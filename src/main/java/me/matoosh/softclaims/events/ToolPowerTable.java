@@ -0,0 +1,56 @@
+package me.matoosh.softclaims.events;
+
+import me.matoosh.softclaims.util.LongLongHashMap;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Lazily computed table of dig powers.
+ * The power is keyed by the block material, the tool material
+ * and the efficiency level of the tool,
+ * so the destroy speed is only computed once per combination.
+ * Has to be used from the main thread.
+ */
+public class ToolPowerTable {
+
+    /**
+     * Dig powers by packed key.
+     */
+    private final LongLongHashMap powers = new LongLongHashMap();
+
+    /**
+     * Gets the power with which a tool digs a block.
+     * @param block The block being dug.
+     * @param tool The tool in the player's main hand.
+     * @return The durability taken away at each swing.
+     */
+    public int getPower(Block block, ItemStack tool) {
+        boolean emptyHand = tool.getAmount() <= 0;
+        Material toolMaterial = emptyHand ? Material.AIR : tool.getType();
+        int efficiency = emptyHand ? 0 : Math.min(tool.getEnchantmentLevel(Enchantment.DIG_SPEED), 0xFF);
+
+        long key = packKey(block.getType(), toolMaterial, efficiency);
+        long power = powers.get(key, -1);
+        if (power < 0) {
+            power = computePower(block, tool, emptyHand);
+            powers.put(key, power);
+        }
+        return (int) power;
+    }
+
+    /**
+     * Computes the dig power of a tool against a block.
+     */
+    private static long computePower(Block block, ItemStack tool, boolean emptyHand) {
+        if (emptyHand) return 1;
+        return (long) block.getDestroySpeed(tool, true);
+    }
+
+    private static long packKey(Material blockMaterial, Material toolMaterial, int efficiency) {
+        return ((long) blockMaterial.ordinal() << 32)
+                | ((long) toolMaterial.ordinal() << 8)
+                | efficiency;
+    }
+}
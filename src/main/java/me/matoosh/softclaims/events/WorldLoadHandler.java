@@ -0,0 +1,21 @@
+package me.matoosh.softclaims.events;
+
+import me.matoosh.softclaims.SoftClaimsPlugin;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+
+public class WorldLoadHandler implements Listener {
+
+    private final SoftClaimsPlugin plugin;
+
+    public WorldLoadHandler(SoftClaimsPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler
+    public void onWorldLoad(WorldLoadEvent event) {
+        // resolve disabled worlds again
+        plugin.recompileSoftClaimsConfig();
+    }
+}
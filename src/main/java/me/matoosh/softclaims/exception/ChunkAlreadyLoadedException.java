@@ -0,0 +1,14 @@
+package me.matoosh.softclaims.exception;
+
+/**
+ * Thrown when loading durability data of a chunk which is already loaded.
+ */
+public class ChunkAlreadyLoadedException extends Exception {
+    public ChunkAlreadyLoadedException() {
+        super();
+    }
+
+    public ChunkAlreadyLoadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,14 @@
+package me.matoosh.softclaims.exception;
+
+/**
+ * Thrown when the durability data of a chunk is being loaded and can't be accessed yet.
+ */
+public class ChunkBusyException extends Exception {
+    public ChunkBusyException() {
+        super();
+    }
+
+    public ChunkBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,14 @@
+package me.matoosh.softclaims.exception;
+
+/**
+ * Thrown when the durability data of a chunk is accessed while the chunk is not loaded.
+ */
+public class ChunkNotLoadedException extends Exception {
+    public ChunkNotLoadedException() {
+        super();
+    }
+
+    public ChunkNotLoadedException(String message) {
+        super(message);
+    }
+}
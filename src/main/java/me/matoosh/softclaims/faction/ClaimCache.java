@@ -0,0 +1,100 @@
+package me.matoosh.softclaims.faction;
+
+import me.matoosh.softclaims.util.LongLongHashMap;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches which faction owns each chunk,
+ * as primitive chunk key to faction id maps per world.
+ */
+public class ClaimCache {
+
+    /**
+     * Returned for chunks which aren't cached.
+     */
+    public static final long MISSING = Long.MIN_VALUE + 1;
+
+    /**
+     * Owning faction ids by chunk key, per world.
+     */
+    private final Map<UUID, LongLongHashMap> claims = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the cached owner of a chunk.
+     * @param world The world of the chunk.
+     * @param chunkKey The key of the chunk.
+     * @return The id of the owning faction or MISSING.
+     */
+    public long get(UUID world, long chunkKey) {
+        LongLongHashMap worldClaims = claims.get(world);
+        if (worldClaims == null) return MISSING;
+        synchronized (worldClaims) {
+            return worldClaims.get(chunkKey, MISSING);
+        }
+    }
+
+    /**
+     * Caches the owner of a chunk.
+     * @param world The world of the chunk.
+     * @param chunkKey The key of the chunk.
+     * @param factionId The id of the owning faction.
+     */
+    public void put(UUID world, long chunkKey, long factionId) {
+        LongLongHashMap worldClaims = claims.computeIfAbsent(world, (w) -> new LongLongHashMap());
+        synchronized (worldClaims) {
+            worldClaims.put(chunkKey, factionId);
+        }
+    }
+
+    /**
+     * Invalidates the cached owner of a chunk.
+     * @param world The world of the chunk.
+     * @param chunkKey The key of the chunk.
+     */
+    public void invalidate(UUID world, long chunkKey) {
+        LongLongHashMap worldClaims = claims.get(world);
+        if (worldClaims == null) return;
+        synchronized (worldClaims) {
+            worldClaims.remove(chunkKey);
+        }
+    }
+
+    /**
+     * Invalidates the cached owner of a chunk if it's cached as owned by a faction.
+     * @param world The world of the chunk.
+     * @param chunkKey The key of the chunk.
+     * @param factionId The id of the faction.
+     */
+    public void invalidate(UUID world, long chunkKey, long factionId) {
+        LongLongHashMap worldClaims = claims.get(world);
+        if (worldClaims == null) return;
+        synchronized (worldClaims) {
+            if (worldClaims.get(chunkKey, MISSING) == factionId) {
+                worldClaims.remove(chunkKey);
+            }
+        }
+    }
+
+    /**
+     * Invalidates all cached chunks of a world.
+     * @param world The world.
+     */
+    public void invalidateWorld(UUID world) {
+        claims.remove(world);
+    }
+
+    /**
+     * Invalidates all chunks cached as owned by a faction.
+     * @param factionId The id of the faction.
+     */
+    public void invalidateFaction(long factionId) {
+        for (LongLongHashMap worldClaims : claims.values()) {
+            synchronized (worldClaims) {
+                worldClaims.removeValue(factionId);
+            }
+        }
+    }
+}
@@ -1,19 +1,57 @@
 package me.matoosh.softclaims.faction;
 
 import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.durability.DurabilityStorage;
 import me.matoosh.softclaims.faction.factionsx.FactionsxImplementation;
+import me.matoosh.softclaims.util.LongLongHashMap;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class FactionService {
+public class FactionService implements Listener {
+
+    /**
+     * Faction id of chunks which aren't claimed by any faction.
+     */
+    public static final long NO_FACTION = Long.MIN_VALUE;
+
+    /**
+     * Interval in ticks at which cached relation permissions and player factions are dropped.
+     * Permission edits don't fire any events, so this bounds how long they can be stale.
+     */
+    private static final int RELATION_CACHE_LIFETIME = 200;
 
     private final SoftClaimsPlugin plugin;
 
     private IFactionImplementation factionImplementation;
 
+    /**
+     * Cache of chunk owners.
+     */
+    private final ClaimCache claimCache = new ClaimCache();
+
+    /**
+     * Cache of whether members of one faction can break blocks in another,
+     * keyed by the land faction id and the player faction id.
+     */
+    private final LongLongHashMap relationCache = new LongLongHashMap();
+
+    /**
+     * Cache of the faction id of each player.
+     */
+    private final Map<UUID, Long> playerFactionCache = new ConcurrentHashMap<>();
+
     public FactionService(SoftClaimsPlugin plugin) {
         this.plugin = plugin;
     }
@@ -27,6 +65,20 @@ public class FactionService {
 
         // register event
         factionImplementation.registerEvents();
+        Bukkit.getPluginManager().registerEvents(this, plugin);
+
+        // warm claim cache
+        factionImplementation.forEachClaim((worldName, chunkX, chunkZ, factionId) -> {
+            World world = Bukkit.getWorld(worldName);
+            if (world != null) {
+                claimCache.put(world.getUID(),
+                        DurabilityStorage.getChunkKey(chunkX, chunkZ), factionId);
+            }
+        });
+        Bukkit.getScheduler().runTaskTimer(plugin, () -> {
+            invalidateRelations();
+            invalidatePlayers();
+        }, RELATION_CACHE_LIFETIME, RELATION_CACHE_LIFETIME);
     }
 
     /**
@@ -35,7 +87,53 @@ public class FactionService {
      * @return Whether the chunk is in faction land.
      */
     public boolean isInFactionLand(Chunk chunk) {
-        return factionImplementation.isInFactionLand(chunk);
+        return getFactionIdAt(chunk) != NO_FACTION;
+    }
+
+    /**
+     * Gets the id of the faction which claimed a chunk.
+     * Only queries the faction plugin if the chunk isn't cached.
+     * @param chunk The chunk to check.
+     * @return The id of the faction or NO_FACTION if the chunk isn't claimed.
+     */
+    public long getFactionIdAt(Chunk chunk) {
+        return getFactionIdAt(chunk.getWorld(), chunk.getX(), chunk.getZ());
+    }
+
+    /**
+     * Gets the id of the faction which claimed a chunk, without loading it.
+     * Only queries the faction plugin if the chunk isn't cached.
+     * Unclaimed chunks are only cached while they are loaded.
+     * @param world The world of the chunk.
+     * @param chunkX The x coordinate of the chunk.
+     * @param chunkZ The z coordinate of the chunk.
+     * @return The id of the faction or NO_FACTION if the chunk isn't claimed.
+     */
+    public long getFactionIdAt(World world, int chunkX, int chunkZ) {
+        long chunkKey = DurabilityStorage.getChunkKey(chunkX, chunkZ);
+        long factionId = claimCache.get(world.getUID(), chunkKey);
+        if (factionId == ClaimCache.MISSING) {
+            factionId = factionImplementation.getFactionIdAt(world, chunkX, chunkZ);
+            if (factionId != NO_FACTION || world.isChunkLoaded(chunkX, chunkZ)) {
+                claimCache.put(world.getUID(), chunkKey, factionId);
+            }
+        }
+        return factionId;
+    }
+
+    /**
+     * Gets the id of the faction of a player.
+     * Only queries the faction plugin if the player isn't cached.
+     * @param uuid The UUID of the player.
+     * @return The id of the faction or NO_FACTION if the player has no faction.
+     */
+    public long getPlayerFactionId(UUID uuid) {
+        Long factionId = playerFactionCache.get(uuid);
+        if (factionId == null) {
+            factionId = factionImplementation.getPlayerFactionId(uuid);
+            playerFactionCache.put(uuid, factionId);
+        }
+        return factionId;
     }
 
     /**
@@ -46,7 +144,88 @@ public class FactionService {
      * @return Whether the player can break blocks in the faction.
      */
     public boolean canPlayerDestroyInFaction(UUID uuid, Chunk factionChunk) {
-        return factionImplementation.canPlayerDestroyInFaction(uuid, factionChunk);
+        long landFactionId = getFactionIdAt(factionChunk);
+        if (landFactionId == NO_FACTION) return false;
+        long playerFactionId = getPlayerFactionId(uuid);
+        if (playerFactionId == NO_FACTION) return false;
+        if (landFactionId == playerFactionId) return true;
+
+        // ids which don't fit the packed key aren't cached
+        if (landFactionId != (int) landFactionId || playerFactionId != (int) playerFactionId) {
+            return factionImplementation.canPlayerDestroyInFaction(uuid, factionChunk);
+        }
+
+        // check cached relation
+        long relationKey = (landFactionId << 32) | (playerFactionId & 0xFFFFFFFFL);
+        long canDestroy;
+        synchronized (relationCache) {
+            canDestroy = relationCache.get(relationKey, -1);
+        }
+        if (canDestroy < 0) {
+            canDestroy = factionImplementation.canPlayerDestroyInFaction(uuid, factionChunk) ? 1 : 0;
+            synchronized (relationCache) {
+                relationCache.put(relationKey, canDestroy);
+            }
+        }
+        return canDestroy == 1;
+    }
+
+    /**
+     * Invalidates the cached owner of a chunk.
+     * Called when a chunk is claimed or unclaimed.
+     * @param world The world of the chunk.
+     * @param chunkX The x coordinate of the chunk.
+     * @param chunkZ The z coordinate of the chunk.
+     */
+    public void invalidateClaim(World world, int chunkX, int chunkZ) {
+        claimCache.invalidate(world.getUID(), DurabilityStorage.getChunkKey(chunkX, chunkZ));
+    }
+
+    /**
+     * Invalidates all cached claims of a faction.
+     * Called when a faction unclaims all its land or disbands.
+     * @param factionId The id of the faction.
+     */
+    public void invalidateFaction(long factionId) {
+        claimCache.invalidateFaction(factionId);
+        invalidateRelations();
+        invalidatePlayers();
+    }
+
+    /**
+     * Invalidates the cached factions of all players.
+     * Called when players join or leave factions.
+     */
+    public void invalidatePlayers() {
+        playerFactionCache.clear();
+    }
+
+    /**
+     * Invalidates the cached relation permissions.
+     * Called when the relation between factions changes.
+     */
+    public void invalidateRelations() {
+        synchronized (relationCache) {
+            relationCache.clear();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        // forget unclaimed chunks once they unload
+        Chunk chunk = event.getChunk();
+        claimCache.invalidate(chunk.getWorld().getUID(),
+                DurabilityStorage.getChunkKey(chunk.getX(), chunk.getZ()), NO_FACTION);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        claimCache.invalidateWorld(event.getWorld().getUID());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        playerFactionCache.remove(event.getPlayer().getUniqueId());
     }
 
     /**
@@ -57,22 +236,31 @@ public class FactionService {
         return factionImplementation.getFactions();
     }
 
+    /**
+     * Gets the bank balance of a faction.
+     * @param factionId The id of the faction.
+     * @return The balance of the faction, 0 if the faction doesn't exist.
+     */
+    public double getFactionBalance(long factionId) {
+        return factionImplementation.getFactionBalance(factionId);
+    }
+
     /**
      * Attempts to charge a faction the given price.
-     * @param factionName The name of the faction.
+     * @param factionId The id of the faction.
      * @param price The price to charge.
      * @return Whether the faction could pay the price.
      */
-    public boolean chargeFaction(String factionName, double price) {
-        return factionImplementation.chargeFaction(factionName, price);
+    public boolean chargeFaction(long factionId, double price) {
+        return factionImplementation.chargeFaction(factionId, price);
     }
 
     /**
-     * Lists all chunks claimed by factions.
-     * @param factionName The faction to get chunks for.
-     * @return All chunks claimed by factions.
+     * Refunds money previously charged to a faction.
+     * @param factionId The id of the faction.
+     * @param amount The amount to refund.
      */
-    public List<Chunk> getAllFactionChunks(String factionName) {
-        return factionImplementation.getAllFactionChunks(factionName);
+    public void refundFaction(long factionId, double amount) {
+        factionImplementation.refundFaction(factionId, amount);
     }
 }
@@ -1,6 +1,7 @@
 package me.matoosh.softclaims.faction;
 
 import org.bukkit.Chunk;
+import org.bukkit.World;
 
 import java.util.List;
 import java.util.UUID;
@@ -17,20 +18,49 @@ public interface IFactionImplementation {
      */
     List<String> getFactions();
 
+    /**
+     * Gets the bank balance of a faction.
+     * @param factionId The id of the faction.
+     * @return The balance of the faction, 0 if the faction doesn't exist.
+     */
+    double getFactionBalance(long factionId);
+
     /**
      * Attempts to charge a faction the given price.
-     * @param factionName The name of the faction.
+     * @param factionId The id of the faction.
      * @param price The price to charge.
      * @return Whether the faction could pay the price.
      */
-    boolean chargeFaction(String factionName, double price);
+    boolean chargeFaction(long factionId, double price);
+
+    /**
+     * Refunds money previously charged to a faction.
+     * @param factionId The id of the faction.
+     * @param amount The amount to refund.
+     */
+    void refundFaction(long factionId, double amount);
+
+    /**
+     * Gets the id of the faction which claimed a chunk, without loading it.
+     * @param world The world of the chunk.
+     * @param chunkX The x coordinate of the chunk.
+     * @param chunkZ The z coordinate of the chunk.
+     * @return The id of the faction or FactionService.NO_FACTION if the chunk isn't claimed.
+     */
+    long getFactionIdAt(World world, int chunkX, int chunkZ);
+
+    /**
+     * Gets the id of the faction of a player.
+     * @param uuid The UUID of the player.
+     * @return The id of the faction or FactionService.NO_FACTION if the player is unknown.
+     */
+    long getPlayerFactionId(UUID uuid);
 
     /**
-     * Checks whether a chunk is in faction land.
-     * @param chunk The chunk to check.
-     * @return Whether the chunk is in faction land.
+     * Visits all chunks claimed by factions.
+     * @param visitor The visitor to call for every claim.
      */
-    boolean isInFactionLand(Chunk chunk);
+    void forEachClaim(ClaimVisitor visitor);
 
     /**
      * Checks whether the player can break blocks
@@ -42,9 +72,9 @@ public interface IFactionImplementation {
     boolean canPlayerDestroyInFaction(UUID uuid, Chunk factionChunk);
 
     /**
-     * Lists all chunks claimed by factions.
-     * @param factionName The faction to get chunks for.
-     * @return All chunks claimed by factions.
+     * Visitor of faction claims.
      */
-    List<Chunk> getAllFactionChunks(String factionName);
+    interface ClaimVisitor {
+        void visit(String worldName, int chunkX, int chunkZ, long factionId);
+    }
 }
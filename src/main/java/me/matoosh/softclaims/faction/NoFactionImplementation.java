@@ -1,6 +1,7 @@
 package me.matoosh.softclaims.faction;
 
 import org.bukkit.Chunk;
+import org.bukkit.World;
 
 import java.util.Collections;
 import java.util.List;
@@ -16,22 +17,33 @@ public class NoFactionImplementation implements IFactionImplementation {
     }
 
     @Override
-    public boolean chargeFaction(String factionName, double price) {
-        return false;
+    public double getFactionBalance(long factionId) {
+        return 0;
     }
 
     @Override
-    public boolean isInFactionLand(Chunk factionChunk) {
+    public boolean chargeFaction(long factionId, double price) {
         return false;
     }
 
     @Override
-    public boolean canPlayerDestroyInFaction(UUID uuid, Chunk factionChunk) {
-        return false;
+    public void refundFaction(long factionId, double amount) {}
+
+    @Override
+    public long getFactionIdAt(World world, int chunkX, int chunkZ) {
+        return FactionService.NO_FACTION;
     }
 
     @Override
-    public List<Chunk> getAllFactionChunks(String factionName) {
-        return Collections.emptyList();
+    public long getPlayerFactionId(UUID uuid) {
+        return FactionService.NO_FACTION;
+    }
+
+    @Override
+    public void forEachClaim(ClaimVisitor visitor) {}
+
+    @Override
+    public boolean canPlayerDestroyInFaction(UUID uuid, Chunk factionChunk) {
+        return false;
     }
 }
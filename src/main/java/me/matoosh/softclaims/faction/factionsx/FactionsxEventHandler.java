@@ -1,15 +1,25 @@
 package me.matoosh.softclaims.faction.factionsx;
 
-import me.matoosh.blockmetadata.exception.ChunkBusyException;
-import me.matoosh.blockmetadata.exception.ChunkNotLoadedException;
 import me.matoosh.softclaims.SoftClaimsPlugin;
 import me.matoosh.softclaims.durability.BlockDurabilityService;
+import me.matoosh.softclaims.durability.DurabilityStorage;
+import me.matoosh.softclaims.exception.ChunkBusyException;
+import me.matoosh.softclaims.exception.ChunkNotLoadedException;
+import net.prosavage.factionsx.event.FPlayerFactionJoinEvent;
+import net.prosavage.factionsx.event.FPlayerFactionLeaveEvent;
+import net.prosavage.factionsx.event.FactionDisbandEvent;
+import net.prosavage.factionsx.event.FactionPreClaimEvent;
+import net.prosavage.factionsx.event.FactionRelationEvent;
+import net.prosavage.factionsx.event.FactionUnClaimAllEvent;
 import net.prosavage.factionsx.event.FactionUnClaimEvent;
+import net.prosavage.factionsx.persist.data.FLocation;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 
-import java.util.List;
-
 public class FactionsxEventHandler implements Listener {
 
     private final SoftClaimsPlugin plugin;
@@ -18,23 +28,108 @@ public class FactionsxEventHandler implements Listener {
         this.plugin = plugin;
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkClaim(FactionPreClaimEvent claimEvent) {
+        invalidateClaim(claimEvent.getFLocation());
+    }
+
     @EventHandler
     public void onChunkUnClaim(FactionUnClaimEvent unClaimEvent) {
+        FLocation location = unClaimEvent.getFLocation();
+        invalidateClaim(location);
+
+        // skip chunks without damage
+        World world = Bukkit.getWorld(location.getWorld());
+        if (world == null) return;
+        int chunkX = (int) location.getX();
+        int chunkZ = (int) location.getZ();
+        DurabilityStorage durabilityStorage = plugin.getBlockDurabilityService().getDurabilityStorage();
+        if (!durabilityStorage.getDamagedChunkIndex().isDamaged(world, chunkX, chunkZ)) {
+            return;
+        }
+
+        // drop the data of chunks which aren't loaded, without loading them
+        if (!world.isChunkLoaded(chunkX, chunkZ)) {
+            durabilityStorage.clearChunk(world, chunkX, chunkZ);
+            return;
+        }
+
         try {
-            // break down damaged durable blocks
-            List<BlockDurabilityService.DamagedBlock> damagedBlocks = plugin.getBlockDurabilityService()
-                    .getDamagedBlocksInChunk(unClaimEvent.getFLocation().getChunk());
-            damagedBlocks.forEach((block) -> {
-                if (!BlockDurabilityService.isBlockHealthy(block.getDurability())) {
-                    block.getBlock().breakNaturally();
+            // queue damaged durable blocks to be broken down over the next ticks
+            Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+            plugin.getBlockDurabilityService().getDamagedSnapshot(chunk)
+                    .forEach((x, y, z, durability) -> {
+                if (!BlockDurabilityService.isBlockHealthy(durability)) {
+                    plugin.getBlockBreakQueue().add(chunk.getBlock(x, y, z));
                 }
             });
 
             // clear durabilities for this chunk
-            plugin.getBlockDurabilityService().clearDurabilitiesInChunk(
-                    unClaimEvent.getFLocation().getChunk());
+            plugin.getBlockDurabilityService().clearDurabilitiesInChunk(chunk);
         } catch (ChunkBusyException | ChunkNotLoadedException e) {
             e.printStackTrace();
         }
     }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onUnClaimAll(FactionUnClaimAllEvent unClaimAllEvent) {
+        invalidateFaction(unClaimAllEvent.getFaction().getId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onDisband(FactionDisbandEvent disbandEvent) {
+        invalidateFaction(disbandEvent.getFaction().getId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onFactionJoin(FPlayerFactionJoinEvent joinEvent) {
+        invalidatePlayers();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onFactionLeave(FPlayerFactionLeaveEvent leaveEvent) {
+        invalidatePlayers();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onRelationChange(FactionRelationEvent relationEvent) {
+        plugin.getFactionService().invalidateRelations();
+    }
+
+    /**
+     * Invalidates the cached owner of a claimed or unclaimed chunk.
+     * The events fire before the grid is updated, so the chunk
+     * is invalidated again on the next tick.
+     * @param location The location of the chunk.
+     */
+    private void invalidateClaim(FLocation location) {
+        World world = Bukkit.getWorld(location.getWorld());
+        if (world == null) return;
+        int chunkX = (int) location.getX();
+        int chunkZ = (int) location.getZ();
+        plugin.getFactionService().invalidateClaim(world, chunkX, chunkZ);
+        Bukkit.getScheduler().runTask(plugin,
+                () -> plugin.getFactionService().invalidateClaim(world, chunkX, chunkZ));
+    }
+
+    /**
+     * Invalidates the cached factions of players,
+     * again on the next tick once the membership is updated.
+     */
+    private void invalidatePlayers() {
+        plugin.getFactionService().invalidatePlayers();
+        Bukkit.getScheduler().runTask(plugin,
+                () -> plugin.getFactionService().invalidatePlayers());
+    }
+
+    /**
+     * Invalidates the cached claims of a faction,
+     * again on the next tick once the grid is updated.
+     * @param factionId The id of the faction.
+     */
+    private void invalidateFaction(long factionId) {
+        plugin.getFactionService().invalidateFaction(factionId);
+        Bukkit.getScheduler().runTask(plugin,
+                () -> plugin.getFactionService().invalidateFaction(factionId));
+    }
 }
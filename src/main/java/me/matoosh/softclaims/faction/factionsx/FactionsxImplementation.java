@@ -1,6 +1,7 @@
 package me.matoosh.softclaims.faction.factionsx;
 
 import me.matoosh.softclaims.SoftClaimsPlugin;
+import me.matoosh.softclaims.faction.FactionService;
 import me.matoosh.softclaims.faction.IFactionImplementation;
 import net.prosavage.factionsx.core.FPlayer;
 import net.prosavage.factionsx.core.Faction;
@@ -12,8 +13,8 @@ import net.prosavage.factionsx.util.PlayerAction;
 import net.prosavage.factionsx.util.Relation;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
+import org.bukkit.World;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -39,8 +40,14 @@ public class FactionsxImplementation implements IFactionImplementation {
     }
 
     @Override
-    public boolean chargeFaction(String factionName, double price) {
-        Faction faction = FactionManager.INSTANCE.getFaction(factionName);
+    public double getFactionBalance(long factionId) {
+        Faction faction = FactionManager.INSTANCE.getFaction(factionId);
+        return faction == null ? 0 : faction.getBank().getAmount();
+    }
+
+    @Override
+    public boolean chargeFaction(long factionId, double price) {
+        Faction faction = FactionManager.INSTANCE.getFaction(factionId);
         if (faction == null) return false;
         Faction.Bank bank = faction.getBank();
         if (bank.getAmount() < price) return false;
@@ -51,8 +58,39 @@ public class FactionsxImplementation implements IFactionImplementation {
     }
 
     @Override
-    public boolean isInFactionLand(Chunk factionChunk) {
-        return !getFactionByChunk(factionChunk).isSystemFaction();
+    public void refundFaction(long factionId, double amount) {
+        Faction faction = FactionManager.INSTANCE.getFaction(factionId);
+        if (faction == null) return;
+        Faction.Bank bank = faction.getBank();
+        bank.setAmount(bank.getAmount() + amount);
+    }
+
+    @Override
+    public long getFactionIdAt(World world, int chunkX, int chunkZ) {
+        Faction faction = GridManager.INSTANCE.getFactionAt(
+                new FLocation(chunkX, chunkZ, world.getName()));
+        return faction.isSystemFaction() ? FactionService.NO_FACTION : faction.getId();
+    }
+
+    @Override
+    public long getPlayerFactionId(UUID uuid) {
+        Faction faction = getFactionByPlayer(uuid);
+        return faction == null ? FactionService.NO_FACTION : faction.getId();
+    }
+
+    @Override
+    public void forEachClaim(ClaimVisitor visitor) {
+        for (Faction faction : FactionManager.INSTANCE.getFactions()) {
+            if (faction.isSystemFaction()) continue;
+            visitClaims(faction, visitor);
+        }
+    }
+
+    private void visitClaims(Faction faction, ClaimVisitor visitor) {
+        for (FLocation location : GridManager.INSTANCE.getAllClaims(faction)) {
+            visitor.visit(location.getWorld(), (int) location.getX(),
+                    (int) location.getZ(), faction.getId());
+        }
     }
 
     @Override
@@ -70,15 +108,6 @@ public class FactionsxImplementation implements IFactionImplementation {
                 .getPermForRelation(relation, PlayerAction.BREAK_BLOCK);
     }
 
-    @Override
-    public List<Chunk> getAllFactionChunks(String factionName) {
-        Faction faction = FactionManager.INSTANCE.getFaction(factionName);
-        if (faction == null) return Collections.emptyList();
-        return GridManager.INSTANCE.getAllClaims(faction)
-                .stream().map(FLocation::getChunk)
-                .collect(Collectors.toList());
-    }
-
     private Faction getFactionByChunk(Chunk factionChunk) {
         return GridManager.INSTANCE.getFactionAt(factionChunk);
     }
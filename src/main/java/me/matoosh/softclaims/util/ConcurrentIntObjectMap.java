@@ -0,0 +1,95 @@
+package me.matoosh.softclaims.util;
+
+/**
+ * Thread safe hash map from primitive int keys to objects.
+ * Keys are spread over independently locked {@link IntObjectHashMap} segments,
+ * so lookups don't box and threads working on different keys rarely contend.
+ * @param <V> The type of the values.
+ */
+public class ConcurrentIntObjectMap<V> {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final IntObjectHashMap<V>[] segments;
+
+    public ConcurrentIntObjectMap() {
+        @SuppressWarnings("unchecked")
+        IntObjectHashMap<V>[] segments = (IntObjectHashMap<V>[]) new IntObjectHashMap<?>[SEGMENT_COUNT];
+        this.segments = segments;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new IntObjectHashMap<>();
+        }
+    }
+
+    /**
+     * Gets the value mapped to a key.
+     * @param key The key.
+     * @return The mapped value or null.
+     */
+    public V get(int key) {
+        IntObjectHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps a key to a value.
+     * @param key The key.
+     * @param value The value, not null.
+     * @return The previously mapped value or null.
+     */
+    public V put(int key, V value) {
+        IntObjectHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.put(key, value);
+        }
+    }
+
+    /**
+     * Removes the mapping of a key.
+     * @param key The key.
+     * @return The removed value or null.
+     */
+    public V remove(int key) {
+        IntObjectHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    /**
+     * Removes the mapping of a key, only if it's mapped to the given value.
+     * @param key The key.
+     * @param value The expected value.
+     * @return Whether the mapping was removed.
+     */
+    public boolean remove(int key, V value) {
+        IntObjectHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key, value);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (IntObjectHashMap<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Gets the segment of a key, picked by the high bits of its hash
+     * while the segment's table uses the low bits.
+     */
+    private IntObjectHashMap<V> segmentFor(int key) {
+        return segments[(IntObjectHashMap.mix(key) >>> 28) & (SEGMENT_COUNT - 1)];
+    }
+}
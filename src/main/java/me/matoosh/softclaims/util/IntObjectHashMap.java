@@ -0,0 +1,152 @@
+package me.matoosh.softclaims.util;
+
+/**
+ * Open-addressing hash map from primitive int keys to objects.
+ * Lookups don't box the key. Null values can't be stored.
+ * Not thread safe.
+ * @param <V> The type of the values.
+ */
+public class IntObjectHashMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public IntObjectHashMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Gets the value mapped to a key.
+     * @param key The key.
+     * @return The mapped value or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int slot = find(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Maps a key to a value.
+     * @param key The key.
+     * @param value The value, not null.
+     * @return The previously mapped value or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > (keys.length >> 1) + (keys.length >> 2)) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the mapping of a key.
+     * @param key The key.
+     * @return The removed value or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = find(key);
+        if (slot < 0) return null;
+        V previous = (V) values[slot];
+        removeSlot(slot);
+        return previous;
+    }
+
+    /**
+     * Removes the mapping of a key, only if it's mapped to the given value.
+     * @param key The key.
+     * @param value The expected value.
+     * @return Whether the mapping was removed.
+     */
+    public boolean remove(int key, V value) {
+        int slot = find(key);
+        if (slot < 0 || values[slot] != value) return false;
+        removeSlot(slot);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes a slot, shifting back the entries of its probe chain.
+     */
+    private void removeSlot(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (values[next] != null) {
+            int home = mix(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[gap] = null;
+        size--;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null) continue;
+            int slot = mix(oldKeys[i]) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
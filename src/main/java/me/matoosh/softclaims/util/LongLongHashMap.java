@@ -0,0 +1,209 @@
+package me.matoosh.softclaims.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive long keys to primitive long values.
+ * Not thread safe.
+ */
+public class LongLongHashMap {
+
+    /**
+     * Key marking an empty slot. Can't be used as a key.
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+
+    public LongLongHashMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Gets the value mapped to a key.
+     * @param key The key.
+     * @param defaultValue Value to return if the key isn't mapped.
+     * @return The mapped value or the default value.
+     */
+    public long get(long key, long defaultValue) {
+        int slot = find(key);
+        return slot < 0 ? defaultValue : values[slot];
+    }
+
+    public boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Maps a key to a value.
+     * @param key The key.
+     * @param value The value.
+     */
+    public void put(long key, long value) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > (keys.length >> 1) + (keys.length >> 2)) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Removes the mapping of a key.
+     * @param key The key.
+     * @return Whether the key was mapped.
+     */
+    public boolean remove(long key) {
+        int slot = find(key);
+        if (slot < 0) return false;
+        removeSlot(slot);
+        return true;
+    }
+
+    /**
+     * Removes all keys mapped to a value.
+     * @param value The value.
+     * @return The number of removed keys.
+     */
+    public int removeValue(long value) {
+        long[] toRemove = new long[size];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY && values[i] == value) {
+                toRemove[count++] = keys[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            remove(toRemove[i]);
+        }
+        return count;
+    }
+
+    /**
+     * Removes all entries matching a predicate.
+     * @param predicate The predicate.
+     * @return The number of removed entries.
+     */
+    public int removeIf(EntryPredicate predicate) {
+        long[] toRemove = new long[size];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY && predicate.test(keys[i], values[i])) {
+                toRemove[count++] = keys[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            remove(toRemove[i]);
+        }
+        return count;
+    }
+
+    /**
+     * Visits all entries.
+     * The visitor must not modify this map.
+     * @param visitor The visitor.
+     */
+    public void forEach(EntryVisitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        allocate(DEFAULT_CAPACITY);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes a slot, shifting back the entries of its probe chain.
+     */
+    private void removeSlot(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = mix(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        size--;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int slot = mix(oldKeys[i]) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Visitor of the entries of the map.
+     */
+    public interface EntryVisitor {
+        void visit(long key, long value);
+    }
+
+    /**
+     * Predicate on the entries of the map.
+     */
+    public interface EntryPredicate {
+        boolean test(long key, long value);
+    }
+}
@@ -0,0 +1,137 @@
+package me.matoosh.softclaims.durability;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChunkDurabilityMapTest {
+
+    @Test
+    public void serializeRoundTrip() {
+        ChunkDurabilityMap map = new ChunkDurabilityMap();
+        map.put(ChunkDurabilityMap.packPosition(0, 0, 0), 1, 100);
+        map.put(ChunkDurabilityMap.packPosition(15, 255, 15), ChunkDurabilityMap.MAX_VALUE - 1, 200);
+        map.put(ChunkDurabilityMap.packPosition(3, 64, 9), 12345, 300);
+
+        ChunkDurabilityMap copy = ChunkDurabilityMap.deserialize(map.serialize());
+        assertEquals(3, copy.size());
+        assertFalse(copy.isDirty());
+        assertEquals(1, copy.get(ChunkDurabilityMap.packPosition(0, 0, 0)));
+        assertEquals(100, copy.getStamp(ChunkDurabilityMap.packPosition(0, 0, 0)));
+        assertEquals(ChunkDurabilityMap.MAX_VALUE - 1, copy.get(ChunkDurabilityMap.packPosition(15, 255, 15)));
+        assertEquals(200, copy.getStamp(ChunkDurabilityMap.packPosition(15, 255, 15)));
+        assertEquals(12345, copy.get(ChunkDurabilityMap.packPosition(3, 64, 9)));
+        assertEquals(300, copy.getStamp(ChunkDurabilityMap.packPosition(3, 64, 9)));
+    }
+
+    @Test
+    public void serializeEmpty() {
+        byte[] data = new ChunkDurabilityMap().serialize();
+        assertEquals(ChunkDurabilityMap.HEADER_SIZE, data.length);
+        assertTrue(ChunkDurabilityMap.hasMagic(data));
+        assertTrue(ChunkDurabilityMap.deserialize(data).isEmpty());
+    }
+
+    @Test
+    public void deserializeWithoutStamps() {
+        ChunkDurabilityMap map = new ChunkDurabilityMap();
+        map.put(ChunkDurabilityMap.packPosition(1, 2, 3), 500, 0);
+        byte[] data = map.serialize();
+
+        // data written before the timestamps were added ends after the entries
+        int before = ChunkDurabilityMap.currentStamp();
+        ChunkDurabilityMap copy = ChunkDurabilityMap.deserialize(Arrays.copyOf(data, data.length - 4));
+        assertEquals(500, copy.get(ChunkDurabilityMap.packPosition(1, 2, 3)));
+        assertTrue(copy.getStamp(ChunkDurabilityMap.packPosition(1, 2, 3)) >= before);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deserializeTruncatedEntries() {
+        ChunkDurabilityMap map = new ChunkDurabilityMap();
+        map.put(ChunkDurabilityMap.packPosition(1, 2, 3), 500);
+        map.put(ChunkDurabilityMap.packPosition(4, 5, 6), 600);
+        byte[] data = map.serialize();
+        ChunkDurabilityMap.deserialize(Arrays.copyOf(data, ChunkDurabilityMap.HEADER_SIZE + 6));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deserializeTruncatedHeader() {
+        ChunkDurabilityMap.deserialize(Arrays.copyOf(new ChunkDurabilityMap().serialize(), 8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deserializeWithoutMagic() {
+        ChunkDurabilityMap.deserialize(new byte[ChunkDurabilityMap.HEADER_SIZE]);
+    }
+
+    @Test
+    public void readEntryCountRejectsHugeCount() {
+        ByteBuffer buffer = ByteBuffer.wrap(new ChunkDurabilityMap().serialize());
+        buffer.putInt(8, Integer.MAX_VALUE);
+        assertEquals(-1, ChunkDurabilityMap.readEntryCount(buffer, buffer.capacity()));
+    }
+
+    @Test
+    public void hasMagic() {
+        assertFalse(ChunkDurabilityMap.hasMagic(new byte[0]));
+        assertFalse(ChunkDurabilityMap.hasMagic("{\"1,2,3\":0.5}".getBytes()));
+        assertTrue(ChunkDurabilityMap.hasMagic(new ChunkDurabilityMap().serialize()));
+    }
+
+    @Test
+    public void removeKeepsOtherEntries() {
+        // compare against a plain map while removing from long probe chains
+        Random random = new Random(42);
+        ChunkDurabilityMap map = new ChunkDurabilityMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            int key = ChunkDurabilityMap.packPosition(random.nextInt(16), random.nextInt(32), random.nextInt(16));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                int value = 1 + random.nextInt(ChunkDurabilityMap.MAX_VALUE - 1);
+                map.put(key, value);
+                expected.put(key, value);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 32; y++) {
+                for (int z = 0; z < 16; z++) {
+                    int key = ChunkDurabilityMap.packPosition(x, y, z);
+                    Integer value = expected.get(key);
+                    assertEquals(value == null ? -1 : value, map.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void packPositionRoundTrip() {
+        for (int y = 0; y < 256; y += 17) {
+            for (int x = -32; x < 32; x += 3) {
+                for (int z = -32; z < 32; z += 5) {
+                    int key = ChunkDurabilityMap.packPosition(x, y, z);
+                    assertEquals(x & 15, ChunkDurabilityMap.unpackX(key));
+                    assertEquals(y, ChunkDurabilityMap.unpackY(key));
+                    assertEquals(z & 15, ChunkDurabilityMap.unpackZ(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void quantizeStaysWithinStoredRange() {
+        assertEquals(1, ChunkDurabilityMap.quantize(0));
+        assertEquals(1, ChunkDurabilityMap.quantize(1e-9));
+        assertEquals(ChunkDurabilityMap.MAX_VALUE - 1, ChunkDurabilityMap.quantize(1));
+        assertEquals(0.5, ChunkDurabilityMap.dequantize(ChunkDurabilityMap.quantize(0.5)),
+                1.0 / ChunkDurabilityMap.MAX_VALUE);
+    }
+}
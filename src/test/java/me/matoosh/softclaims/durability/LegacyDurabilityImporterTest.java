@@ -0,0 +1,45 @@
+package me.matoosh.softclaims.durability;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class LegacyDurabilityImporterTest {
+
+    @Test
+    public void importChunk() throws IOException {
+        byte[] data = "{\"1,64,2\": 0.5, \"15, 0, 15\": 0.25}".getBytes(StandardCharsets.UTF_8);
+        ChunkDurabilityMap map = LegacyDurabilityImporter.importChunk(data);
+        assertEquals(2, map.size());
+        assertTrue(map.isDirty());
+        assertEquals(ChunkDurabilityMap.quantize(0.5), map.get(ChunkDurabilityMap.packPosition(1, 64, 2)));
+        assertEquals(ChunkDurabilityMap.quantize(0.25), map.get(ChunkDurabilityMap.packPosition(15, 0, 15)));
+    }
+
+    @Test
+    public void importSkipsFullAndEmptyDurabilities() throws IOException {
+        byte[] data = "{\"1,2,3\": 1.0, \"4,5,6\": 0, \"7,8,9\": 0.75}".getBytes(StandardCharsets.UTF_8);
+        ChunkDurabilityMap map = LegacyDurabilityImporter.importChunk(data);
+        assertEquals(1, map.size());
+        assertEquals(-1, map.get(ChunkDurabilityMap.packPosition(1, 2, 3)));
+        assertEquals(-1, map.get(ChunkDurabilityMap.packPosition(4, 5, 6)));
+    }
+
+    @Test(expected = IOException.class)
+    public void importRejectsInvalidPosition() throws IOException {
+        LegacyDurabilityImporter.importChunk("{\"1,2\": 0.5}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IOException.class)
+    public void importRejectsTruncatedFile() throws IOException {
+        LegacyDurabilityImporter.importChunk("{\"1,2,3\": 0.".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IOException.class)
+    public void importRejectsPackedData() throws IOException {
+        LegacyDurabilityImporter.importChunk(new ChunkDurabilityMap().serialize());
+    }
+}
@@ -0,0 +1,81 @@
+package me.matoosh.softclaims.events;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FalloffKernelTest {
+
+    @Test
+    public void coversCubeExceptOrigin() {
+        FalloffKernel kernel = FalloffKernel.of(3);
+        assertEquals(7 * 7 * 7 - 1, kernel.size());
+        Set<Integer> offsets = new HashSet<>();
+        for (int i = 0; i < kernel.size(); i++) {
+            int dx = kernel.getDx(i);
+            int dy = kernel.getDy(i);
+            int dz = kernel.getDz(i);
+            assertTrue(Math.abs(dx) <= 3 && Math.abs(dy) <= 3 && Math.abs(dz) <= 3);
+            assertFalse(dx == 0 && dy == 0 && dz == 0);
+            assertTrue(offsets.add(index(dx, dy, dz)));
+        }
+    }
+
+    @Test
+    public void sortedByFalloff() {
+        FalloffKernel kernel = FalloffKernel.of(3);
+        for (int i = 1; i < kernel.size(); i++) {
+            assertTrue(kernel.getMaxFalloff(i) <= kernel.getMaxFalloff(i - 1));
+        }
+    }
+
+    @Test
+    public void neighboursCloserToOriginComeFirst() {
+        // the propagation relies on every step towards the origin being earlier in the kernel
+        FalloffKernel kernel = FalloffKernel.of(3);
+        int[] order = new int[7 * 7 * 7];
+        for (int i = 0; i < kernel.size(); i++) {
+            order[index(kernel.getDx(i), kernel.getDy(i), kernel.getDz(i))] = i + 1;
+        }
+        for (int i = 0; i < kernel.size(); i++) {
+            int dx = kernel.getDx(i);
+            int dy = kernel.getDy(i);
+            int dz = kernel.getDz(i);
+            if (dx != 0) assertTrue(order[index(dx - Integer.signum(dx), dy, dz)] <= i);
+            if (dy != 0) assertTrue(order[index(dx, dy - Integer.signum(dy), dz)] <= i);
+            if (dz != 0) assertTrue(order[index(dx, dy, dz - Integer.signum(dz))] <= i);
+        }
+    }
+
+    @Test
+    public void maxFalloffBoundsExplosionsInOriginBlock() {
+        FalloffKernel kernel = FalloffKernel.of(3);
+        Random random = new Random(5);
+        for (int sample = 0; sample < 200; sample++) {
+            double x = random.nextDouble();
+            double y = random.nextDouble();
+            double z = random.nextDouble();
+            for (int i = 0; i < kernel.size(); i++) {
+                double dx = kernel.getDx(i) + 0.5 - x;
+                double dy = kernel.getDy(i) + 0.5 - y;
+                double dz = kernel.getDz(i) + 0.5 - z;
+                double falloff = FalloffKernel.falloff(Math.sqrt(dx * dx + dy * dy + dz * dz));
+                assertTrue(falloff <= kernel.getMaxFalloff(i) + 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void cachedPerRadius() {
+        assertSame(FalloffKernel.of(2), FalloffKernel.of(2));
+        assertEquals(5 * 5 * 5 - 1, FalloffKernel.of(2).size());
+    }
+
+    private static int index(int dx, int dy, int dz) {
+        return ((dx + 3) * 7 + dy + 3) * 7 + dz + 3;
+    }
+}
@@ -0,0 +1,76 @@
+package me.matoosh.softclaims.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentIntObjectMapTest {
+
+    @Test
+    public void putGetRemove() {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<>();
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(-1, "b"));
+        assertEquals("a", map.put(1, "c"));
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(1));
+        assertTrue(map.containsKey(-1));
+
+        assertFalse(map.remove(1, "a"));
+        assertEquals("c", map.remove(1));
+        assertNull(map.get(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void removeShiftsBackProbeChains() {
+        Random random = new Random(3);
+        ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<>();
+        Integer[] expected = new Integer[4096];
+        for (int i = 0; i < 50000; i++) {
+            int key = random.nextInt(expected.length);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected[key], map.remove(key));
+                expected[key] = null;
+            } else {
+                Integer value = random.nextInt();
+                assertEquals(expected[key], map.put(key, value));
+                expected[key] = value;
+            }
+        }
+        int size = 0;
+        for (int key = 0; key < expected.length; key++) {
+            assertEquals(expected[key], map.get(key));
+            if (expected[key] != null) size++;
+        }
+        assertEquals(size, map.size());
+    }
+
+    @Test
+    public void concurrentDisjointKeys() throws InterruptedException {
+        ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t * 10000;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    map.put(offset + i, i);
+                }
+                for (int i = 0; i < 10000; i += 2) {
+                    map.remove(offset + i);
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(20000, map.size());
+        for (int key = 0; key < 40000; key++) {
+            assertEquals(key % 2 == 0 ? null : key % 10000, map.get(key));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package me.matoosh.softclaims.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntObjectHashMapTest {
+
+    @Test
+    public void putGetRemove() {
+        IntObjectHashMap<String> map = new IntObjectHashMap<>();
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(Integer.MIN_VALUE, "b"));
+        assertEquals("a", map.put(1, "c"));
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(1));
+        assertEquals("b", map.get(Integer.MIN_VALUE));
+        assertNull(map.get(2));
+
+        assertEquals("c", map.remove(1));
+        assertNull(map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void removeOnlyMatchingValue() {
+        IntObjectHashMap<String> map = new IntObjectHashMap<>();
+        String value = "a";
+        map.put(1, value);
+        assertFalse(map.remove(1, new String("a")));
+        assertTrue(map.containsKey(1));
+        assertTrue(map.remove(1, value));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void removeShiftsBackProbeChains() {
+        Random random = new Random(11);
+        IntObjectHashMap<Integer> map = new IntObjectHashMap<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(512);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Integer value = random.nextInt();
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = 0; key < 512; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package me.matoosh.softclaims.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongLongHashMapTest {
+
+    @Test
+    public void putGetRemove() {
+        LongLongHashMap map = new LongLongHashMap();
+        assertTrue(map.isEmpty());
+        map.put(1, 10);
+        map.put(-1, 20);
+        map.put(Long.MAX_VALUE, 30);
+        map.put(1, 11);
+        assertEquals(3, map.size());
+        assertEquals(11, map.get(1, -1));
+        assertEquals(20, map.get(-1, -1));
+        assertEquals(30, map.get(Long.MAX_VALUE, -1));
+        assertEquals(-1, map.get(2, -1));
+
+        assertTrue(map.remove(-1));
+        assertFalse(map.remove(-1));
+        assertFalse(map.containsKey(-1));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void removeShiftsBackProbeChains() {
+        // keys on a small grid collide often, so removals have to shift chains back
+        Random random = new Random(7);
+        LongLongHashMap map = new LongLongHashMap();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            long key = ((long) random.nextInt(64) << 32) | random.nextInt(64);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                long value = random.nextLong();
+                map.put(key, value);
+                expected.put(key, value);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long x = 0; x < 64; x++) {
+            for (long z = 0; z < 64; z++) {
+                long key = (x << 32) | z;
+                assertEquals(expected.containsKey(key), map.containsKey(key));
+                if (expected.containsKey(key)) {
+                    assertEquals((long) expected.get(key), map.get(key, 0));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void removeValueAndRemoveIf() {
+        LongLongHashMap map = new LongLongHashMap();
+        for (long key = 0; key < 100; key++) {
+            map.put(key, key % 3);
+        }
+        assertEquals(34, map.removeValue(0));
+        assertEquals(66, map.size());
+        assertEquals(33, map.removeIf((key, value) -> value == 1));
+        assertEquals(33, map.size());
+        map.forEach((key, value) -> assertEquals(2, value));
+    }
+
+    @Test
+    public void clear() {
+        LongLongHashMap map = new LongLongHashMap();
+        for (long key = 0; key < 100; key++) {
+            map.put(key, key);
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(5));
+        map.put(5, 6);
+        assertEquals(6, map.get(5, 0));
+    }
+}